@@ -0,0 +1,242 @@
+package sherp.simpledatabase.bench;
+
+import sherp.simpledatabase.Database;
+import sherp.simpledatabase.DatabaseOptions;
+import sherp.simpledatabase.Entry;
+import sherp.simpledatabase.StorageType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of the database hot paths. Every trial runs on a new database in a temporary folder,
+ * only the measured part of a trial is timed and results are printed as operations per second.
+ * <p>
+ * Usage: {@code Benchmarks [--warmup n] [--iterations n] [--sizes n,n,...] [--threads n] [--storage DIRECTORY|PAGED] [name...]}
+ * <br>Names select benchmarks by prefix, all benchmarks run without names.
+ */
+public class Benchmarks {
+    private static int warmup = 2;
+    private static int iterations = 5;
+    private static int[] sizes = {1_000, 10_000, 100_000};
+    private static int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static StorageType storage = StorageType.DIRECTORY;
+    private static final List<String> selected = new ArrayList<>();
+
+    private interface Trial {
+        /**
+         * Runs one trial in the folder, timing only the measured part. Returns the amount of measured operations.
+         */
+        long run(Path folder, Stopwatch watch) throws Exception;
+    }
+
+    private static class Stopwatch {
+        private long start;
+        private long elapsed;
+
+        void start() {
+            start = System.nanoTime();
+        }
+
+        void stop() {
+            elapsed += System.nanoTime() - start;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--sizes":
+                    sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--storage":
+                    storage = StorageType.valueOf(args[++i]);
+                    break;
+                default:
+                    selected.add(args[i]);
+            }
+        }
+        System.out.printf(Locale.ROOT, "# java %s, %d processors, storage %s, warmup %d, iterations %d%n",
+                System.getProperty("java.version"), Runtime.getRuntime().availableProcessors(), storage, warmup, iterations);
+
+        for (int size : sizes) {
+            bench("add", size, (folder, watch) -> {
+                Database database = Database.create("db", folder.toString(), options());
+                watch.start();
+                for (int i = 0; i < size; i++)
+                    database.add("e" + i);
+                watch.stop();
+                database.close();
+                return size;
+            });
+            bench("get", size, (folder, watch) -> lookups(folder, watch, size, false));
+            bench("contains", size, (folder, watch) -> lookups(folder, watch, size, true));
+            bench("connect", size, (folder, watch) -> connect(folder, watch, size, false));
+            bench("connect-lazy", size, (folder, watch) -> connect(folder, watch, size, true));
+        }
+
+        bench("upload-single", 100_000, (folder, watch) -> {
+            Database database = Database.create("db", folder.toString(), options());
+            database.add("e");
+            Entry entry = database.get("e");
+            watch.start();
+            for (int i = 0; i < 100_000; i++)
+                entry.uploadData("line " + i);
+            watch.stop();
+            database.close();
+            return 100_000;
+        });
+        bench("upload-bulk", 1_000, (folder, watch) -> {
+            Database database = Database.create("db", folder.toString(), options());
+            database.add("e");
+            Entry entry = database.get("e");
+            String[] lines = new String[100];
+            for (int i = 0; i < lines.length; i++)
+                lines[i] = "line " + i;
+            watch.start();
+            for (int i = 0; i < 1_000; i++)
+                entry.uploadData(lines);
+            watch.stop();
+            database.close();
+            return 1_000;
+        });
+        bench("files", 1_000, (folder, watch) -> {
+            Path source = Files.createDirectory(folder.resolve("source"));
+            byte[] content = new byte[4096];
+            for (int i = 0; i < 1_000; i++)
+                Files.write(source.resolve("f" + i), content);
+            Database database = Database.create("db", folder.toString(), options());
+            database.add("e");
+            Entry entry = database.get("e");
+            watch.start();
+            for (int i = 0; i < 1_000; i++)
+                entry.uploadFile(source.resolve("f" + i).toString());
+            watch.stop();
+            database.close();
+            return 1_000;
+        });
+        bench("contention-append", threads, (folder, watch) -> contention(folder, watch, false));
+        bench("contention-shared", threads, (folder, watch) -> contention(folder, watch, true));
+    }
+
+    private static DatabaseOptions options() {
+        return new DatabaseOptions().setStorageType(storage);
+    }
+
+    private static Database populate(Path folder, int size) {
+        Database database = Database.create("db", folder.toString(), options());
+        for (int i = 0; i < size; i++) {
+            Entry entry = new Entry("e" + i);
+            entry.uploadData("alpha " + i, "beta " + i, "gamma " + i);
+            database.add(entry);
+        }
+        return database;
+    }
+
+    // Lookups of present names, and for contains of absent names as well, as get reports absent names
+    private static long lookups(Path folder, Stopwatch watch, int size, boolean contains) {
+        Database database = populate(folder, size);
+        Random random = new Random(size);
+        String[] names = new String[1_000_000];
+        for (int i = 0; i < names.length; i++)
+            names[i] = "e" + random.nextInt(contains ? size * 2 : size);
+        long found = 0;
+        watch.start();
+        for (String name : names) {
+            if (contains ? database.contains(name) : database.get(name) != null)
+                found++;
+        }
+        watch.stop();
+        database.close();
+        if (found == 0)
+            throw new IllegalStateException("No entries found");
+        return names.length;
+    }
+
+    private static long connect(Path folder, Stopwatch watch, int size, boolean lazy) {
+        populate(folder, size).close();
+        watch.start();
+        Database database = Database.connect(folder.toString(), "db", options().setLazy(lazy));
+        watch.stop();
+        if (database.size() != size)
+            throw new IllegalStateException("Connected to " + database.size() + " entries");
+        database.close();
+        return size;
+    }
+
+    // Every thread appends to its own entry, or all threads append to one shared entry
+    private static long contention(Path folder, Stopwatch watch, boolean shared) throws Exception {
+        int appends = 20_000;
+        Database database = Database.create("db", folder.toString(), options());
+        for (int t = 0; t < threads; t++)
+            database.add("e" + t);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Entry entry = database.get(shared ? "e0" : "e" + t);
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < appends; i++)
+                    entry.uploadData("line " + i);
+                return null;
+            }));
+        }
+        watch.start();
+        start.countDown();
+        for (Future<?> future : futures)
+            future.get();
+        watch.stop();
+        executor.shutdown();
+        database.close();
+        return (long) appends * threads;
+    }
+
+    private static void bench(String name, int param, Trial trial) throws Exception {
+        if (!selected.isEmpty() && selected.stream().noneMatch(name::startsWith))
+            return;
+        double[] results = new double[iterations];
+        for (int i = -warmup; i < iterations; i++) {
+            Path folder = Files.createTempDirectory("sdbench");
+            try {
+                Stopwatch watch = new Stopwatch();
+                long operations = trial.run(folder, watch);
+                if (i >= 0)
+                    results[i] = operations * 1e9 / watch.elapsed;
+            } finally {
+                delete(folder);
+            }
+        }
+        double mean = Arrays.stream(results).average().orElse(0);
+        double deviation = Math.sqrt(Arrays.stream(results).map(r -> (r - mean) * (r - mean)).sum() / Math.max(1, iterations - 1));
+        System.out.printf(Locale.ROOT, "%-20s %10d %16.1f ops/s  +- %.1f%n", name, param, mean, deviation);
+    }
+
+    private static void delete(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+}
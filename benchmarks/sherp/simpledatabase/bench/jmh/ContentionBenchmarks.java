@@ -0,0 +1,69 @@
+package sherp.simpledatabase.bench.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+import sherp.simpledatabase.Entry;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent writers appending to their own entries or to one shared entry,
+ * the {@code contention-append} and {@code contention-shared} cases of {@code Benchmarks}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(Threads.MAX)
+public class ContentionBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class Writers extends DatabaseState {
+        private Entry[] entries;
+
+        @Setup(Level.Iteration)
+        public void setUp(BenchmarkParams params) throws IOException {
+            create();
+            entries = new Entry[params.getThreads()];
+            for (int i = 0; i < entries.length; i++) {
+                database.add("e" + i);
+                entries[i] = database.get("e" + i);
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            destroy();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Lines {
+        private int next;
+    }
+
+    @Benchmark
+    public void append(Writers writers, Lines lines, ThreadParams thread) {
+        writers.entries[thread.getThreadIndex()].uploadData("line " + lines.next++);
+    }
+
+    @Benchmark
+    public void shared(Writers writers, Lines lines) {
+        writers.entries[0].uploadData("line " + lines.next++);
+    }
+}
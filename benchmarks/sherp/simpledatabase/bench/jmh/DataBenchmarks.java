@@ -0,0 +1,86 @@
+package sherp.simpledatabase.bench.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sherp.simpledatabase.Entry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Data and file uploads to a single entry,
+ * the {@code upload-single}, {@code upload-bulk} and {@code files} cases of {@code Benchmarks}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DataBenchmarks {
+    private static final int FILES = 1_000;
+
+    @State(Scope.Benchmark)
+    public static class SingleEntry extends DatabaseState {
+        private final String[] lines = new String[100];
+        Entry entry;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            create();
+            database.add("e");
+            entry = database.get("e");
+            for (int i = 0; i < lines.length; i++)
+                lines[i] = "line " + i;
+            next = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            destroy();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Sources extends SingleEntry {
+        private Path source;
+
+        @Setup(Level.Iteration)
+        public void writeSources() throws IOException {
+            source = Files.createDirectory(folder.resolve("source"));
+            byte[] content = new byte[4096];
+            for (int i = 0; i < FILES; i++)
+                Files.write(source.resolve("f" + i), content);
+        }
+    }
+
+    @Benchmark
+    public void uploadSingle(SingleEntry state) {
+        state.entry.uploadData("line " + state.next++);
+    }
+
+    @Benchmark
+    public void uploadBulk(SingleEntry state) {
+        state.entry.uploadData(state.lines);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2, batchSize = FILES)
+    @Measurement(iterations = 5, batchSize = FILES)
+    public void files(Sources state) {
+        state.entry.uploadFile(state.source.resolve("f" + state.next++).toString());
+    }
+}
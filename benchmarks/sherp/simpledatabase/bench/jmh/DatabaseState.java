@@ -0,0 +1,64 @@
+package sherp.simpledatabase.bench.jmh;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import sherp.simpledatabase.Database;
+import sherp.simpledatabase.DatabaseOptions;
+import sherp.simpledatabase.Entry;
+import sherp.simpledatabase.StorageType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Base of the benchmark states, holding a database of the benchmarked storage type in a temporary folder.
+ */
+@State(Scope.Benchmark)
+public abstract class DatabaseState {
+    @Param({"DIRECTORY", "PAGED"})
+    public StorageType storage;
+
+    Path folder;
+    Database database;
+
+    DatabaseOptions options() {
+        return new DatabaseOptions().setStorageType(storage);
+    }
+
+    /**
+     * Creates a new database in a new temporary folder.
+     */
+    void create() throws IOException {
+        folder = Files.createTempDirectory("sdbench");
+        database = Database.create("db", folder.toString(), options());
+    }
+
+    /**
+     * Creates a new database of {@code size} entries holding three data lines each.
+     */
+    void populate(int size) throws IOException {
+        create();
+        for (int i = 0; i < size; i++) {
+            Entry entry = new Entry("e" + i);
+            entry.uploadData("alpha " + i, "beta " + i, "gamma " + i);
+            database.add(entry);
+        }
+    }
+
+    /**
+     * Closes the database and deletes its folder.
+     */
+    void destroy() throws IOException {
+        if (database != null)
+            database.close();
+        database = null;
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+}
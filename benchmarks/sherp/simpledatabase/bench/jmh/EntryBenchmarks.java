@@ -0,0 +1,134 @@
+package sherp.simpledatabase.bench.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sherp.simpledatabase.Database;
+import sherp.simpledatabase.Entry;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding, looking up and connecting entries at growing database sizes,
+ * the {@code add}, {@code get}, {@code contains} and {@code connect} cases of {@code Benchmarks}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EntryBenchmarks {
+    private static final int ADDS = 1_000;
+
+    @State(Scope.Benchmark)
+    public static class Populated extends DatabaseState {
+        @Param({"1000", "10000", "100000"})
+        public int size;
+
+        // Present names, and names of which half are absent, as get reports absent names
+        private final String[] names = new String[1 << 16];
+        private final String[] mixed = new String[1 << 16];
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            populate(size);
+            Random random = new Random(size);
+            for (int i = 0; i < names.length; i++) {
+                names[i] = "e" + random.nextInt(size);
+                mixed[i] = "e" + random.nextInt(size * 2);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            destroy();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Growing extends DatabaseState {
+        @Param({"1000", "10000", "100000"})
+        public int size;
+
+        private int next;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            populate(size);
+            next = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            destroy();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Closed extends DatabaseState {
+        @Param({"1000", "10000", "100000"})
+        public int size;
+
+        @Param({"false", "true"})
+        public boolean lazy;
+
+        private Database connected;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            populate(size);
+            database.close();
+            database = null;
+        }
+
+        @TearDown(Level.Invocation)
+        public void disconnect() {
+            connected.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            destroy();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2, batchSize = ADDS)
+    @Measurement(iterations = 5, batchSize = ADDS)
+    public boolean add(Growing state) {
+        return state.database.add("n" + state.next++);
+    }
+
+    @Benchmark
+    public Entry get(Populated state) {
+        return state.database.get(state.names[state.next++ & (state.names.length - 1)]);
+    }
+
+    @Benchmark
+    public boolean contains(Populated state) {
+        return state.database.contains(state.mixed[state.next++ & (state.mixed.length - 1)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 10)
+    public Database connect(Closed state) {
+        state.connected = Database.connect(state.folder.toString(), "db", state.options().setLazy(state.lazy));
+        return state.connected;
+    }
+}
@@ -0,0 +1,415 @@
+package sherp.simpledatabase;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content-addressed store of entry files in {@code .sddata/blobs}. Every distinct file content is stored once,
+ * named by its SHA-256 hash, and entry files are hard links to it. The store counts the entry files linked to
+ * every blob in {@code refs.dat}, so a blob no entry file is linked to any more is removed by a background collector.
+ * <p>
+ * An entry file keeps its content even when its blob is removed, so a lost reference, for example after a crash,
+ * only stores that content again the next time it is attached. References to entry files that no longer exist
+ * are dropped by a full check when the store is opened; after that the collector only looks at the blobs whose
+ * last reference was dropped.
+ */
+class BlobStore implements Runnable {
+    private static final int CACHED_HASHES = 1024;
+
+    private final Path root;
+    private final Path folder;
+    private final Path incoming;
+    // Source file (path, size, modification time) -> content hash, so attaching the same file again skips copying
+    private final Map<String, String> hashes;
+    // Entry file, relative to the database folder -> hash of its blob
+    private final Map<String, String> refs;
+    // Blob hash -> amount of entry files linked to it
+    private final Map<String, Integer> counts;
+    // Hashes of blobs whose last reference was dropped since the collector last ran
+    private final Set<String> released;
+    private final Thread collector;
+    private final Diagnostics diagnostics;
+    private DataOutputStream journal;
+    private int journalRecords;
+    private boolean requested;
+    private boolean closed;
+
+    private BlobStore(Path root, Path folder, Path incoming, Diagnostics diagnostics) throws IOException {
+        this.root = root;
+        this.folder = folder;
+        this.incoming = incoming;
+        this.diagnostics = diagnostics;
+        hashes = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > CACHED_HASHES;
+            }
+        };
+        refs = new HashMap<>();
+        counts = new HashMap<>();
+        released = new HashSet<>();
+        readJournal();
+        writeJournal();
+        requested = true;
+        collector = new Thread(this, "SimpleDatabase blob collector");
+        collector.setDaemon(true);
+        collector.start();
+    }
+
+    /**
+     * Opens the store of the database in the root folder. Returns {@code null} if the file system does not support hard links.
+     */
+    static BlobStore open(Path root, Path folder, Path incoming, Diagnostics diagnostics) {
+        Path probe = null;
+        Path link = null;
+        try {
+            Files.createDirectories(folder);
+            Files.createDirectories(incoming);
+            probe = File.createTempFile("probe", null, incoming.toFile()).toPath();
+            link = probe.resolveSibling(probe.getFileName() + ".link");
+            Files.createLink(link, probe);
+        } catch (IOException | UnsupportedOperationException e) {
+            diagnostics.report(ErrorCode.UNSUPPORTED, null, "File deduplication is not supported on this file system", e);
+            return null;
+        } finally {
+            try {
+                if (link != null)
+                    Files.deleteIfExists(link);
+                if (probe != null)
+                    Files.deleteIfExists(probe);
+            } catch (IOException ignored) {
+            }
+        }
+        try {
+            return new BlobStore(root, folder, incoming, diagnostics);
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, null, "Blob reference file error", e);
+            return null;
+        }
+    }
+
+    /**
+     * Links the target to the stored content of the source file, storing the content first if it is new.
+     *
+     * @throws FileAlreadyExistsException if the target exists
+     */
+    void link(Path source, Path target) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        String key = source.toRealPath() + File.pathSeparator + attributes.size() + File.pathSeparator + attributes.lastModifiedTime();
+        String hash;
+        synchronized (hashes) {
+            hash = hashes.get(key);
+        }
+        // A known source is linked to its blob without copying, unless the blob was removed meanwhile
+        if (hash != null && store(null, hash, target))
+            return;
+
+        Path copy = File.createTempFile("blob", null, incoming.toFile()).toPath();
+        try {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(copy, StandardOpenOption.WRITE)) {
+                FileManager.transferFully(in, 0, in.size(), out);
+            }
+            // The copy is hashed, so the stored content always matches its hash even if the source changes meanwhile
+            hash = hash(copy);
+        } catch (IOException e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+        if (attributes.lastModifiedTime().equals(Files.getLastModifiedTime(source))) {
+            synchronized (hashes) {
+                hashes.put(key, hash);
+            }
+        }
+        store(copy, hash, target);
+    }
+
+    /**
+     * Links the target to the stored content of a file received into the import folder, consuming the received file.
+     *
+     * @throws FileAlreadyExistsException if the target exists
+     */
+    void attach(Path received, Path target) throws IOException {
+        store(received, hash(received), target);
+    }
+
+    /**
+     * Links the target to the blob of the hash, storing the content as the blob first if it is missing.
+     * Returns {@code false} if the blob is missing and there is no content to store.
+     * The content is consumed either way.
+     */
+    private synchronized boolean store(Path content, String hash, Path target) throws IOException {
+        Path blob = blob(hash);
+        try {
+            if (!Files.exists(blob)) {
+                if (content == null)
+                    return false;
+                Files.createDirectories(blob.getParent());
+                Files.move(content, blob, StandardCopyOption.ATOMIC_MOVE);
+                content = null;
+            }
+            Files.createLink(target, blob);
+            reference(key(target), hash);
+            return true;
+        } finally {
+            if (content != null)
+                Files.deleteIfExists(content);
+        }
+    }
+
+    /**
+     * Drops the reference of a deleted entry file.
+     */
+    synchronized void release(Path file) {
+        if (refs.containsKey(key(file)))
+            reference(key(file), null);
+        collect();
+    }
+
+    /**
+     * Drops the references of all the files of a deleted entry folder.
+     */
+    synchronized void releaseFolder(Path entryFolder) {
+        String prefix = key(entryFolder) + File.separator;
+        for (String file : new HashMap<>(refs).keySet()) {
+            if (file.startsWith(prefix))
+                reference(file, null);
+        }
+        collect();
+    }
+
+    /**
+     * Moves the references of the files of a renamed entry folder.
+     */
+    synchronized void moveFolder(Path entryFolder, Path newFolder) {
+        String prefix = key(entryFolder) + File.separator;
+        String newPrefix = key(newFolder) + File.separator;
+        for (Map.Entry<String, String> ref : new HashMap<>(refs).entrySet()) {
+            if (ref.getKey().startsWith(prefix)) {
+                reference(ref.getKey(), null);
+                reference(newPrefix + ref.getKey().substring(prefix.length()), ref.getValue());
+            }
+        }
+    }
+
+    private String key(Path file) {
+        return root.relativize(file).toString();
+    }
+
+    /**
+     * Sets the blob referenced by the entry file, {@code null} to drop the reference, and records it in the journal.
+     */
+    private void reference(String file, String hash) {
+        String old = hash == null ? refs.remove(file) : refs.put(file, hash);
+        if (old != null && counts.merge(old, -1, (count, delta) -> count + delta == 0 ? null : count + delta) == null)
+            released.add(old);
+        if (hash != null)
+            counts.merge(hash, 1, Integer::sum);
+        if (journal == null)
+            return;
+        try {
+            journal.writeUTF(file);
+            journal.writeUTF(hash == null ? "" : hash);
+            journal.flush();
+            journalRecords++;
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, null, "Blob reference write error", e);
+        }
+    }
+
+    private void readJournal() throws IOException {
+        Path file = folder.resolve("refs.dat");
+        if (!Files.exists(file))
+            return;
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            while (true) {
+                String path = in.readUTF();
+                String hash = in.readUTF();
+                reference(path, hash.isEmpty() ? null : hash);
+            }
+        } catch (EOFException ignored) {
+            // End of the journal, or a record torn by a crash
+        }
+    }
+
+    /**
+     * Rewrites the journal with one record per reference.
+     */
+    private void writeJournal() throws IOException {
+        if (journal != null)
+            journal.close();
+        journal = null;
+        Path file = folder.resolve("refs.dat");
+        Path written = folder.resolve("refs.new.dat");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(written))) {
+            for (Map.Entry<String, String> ref : refs.entrySet()) {
+                out.writeUTF(ref.getKey());
+                out.writeUTF(ref.getValue());
+            }
+        }
+        Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = new DataOutputStream(new FileOutputStream(file.toFile(), true));
+        journalRecords = refs.size();
+    }
+
+    private Path blob(String hash) {
+        return folder.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest())
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    /**
+     * Asks the collector to remove the released blobs no entry links to any more.
+     */
+    synchronized void collect() {
+        notifyAll();
+    }
+
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+        try {
+            if (journal != null)
+                journal.close();
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, null, "Blob reference file error", e);
+        }
+        journal = null;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            boolean full;
+            List<String> hashes;
+            synchronized (this) {
+                while (!requested && released.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed)
+                    return;
+                full = requested;
+                requested = false;
+                hashes = new ArrayList<>(released);
+                released.clear();
+                compact();
+            }
+            if (full) {
+                check();
+                sweep();
+            } else {
+                for (String hash : hashes) {
+                    try {
+                        remove(blob(hash));
+                    } catch (IOException e) {
+                        diagnostics.report(ErrorCode.IO_ERROR, null, "Blob collection error", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops references to entry files that no longer exist. The files are looked up without holding the store,
+     * and a reference is only dropped if it still points to the same blob and its file is still missing.
+     */
+    private void check() {
+        Map<String, String> known;
+        synchronized (this) {
+            known = new HashMap<>(refs);
+        }
+        List<String> missing = new ArrayList<>();
+        for (String file : known.keySet()) {
+            if (!Files.exists(root.resolve(file)))
+                missing.add(file);
+        }
+        if (missing.isEmpty())
+            return;
+        synchronized (this) {
+            for (String file : missing) {
+                String hash = refs.get(file);
+                if (hash != null && hash.equals(known.get(file)) && !Files.exists(root.resolve(file)))
+                    reference(file, null);
+            }
+        }
+    }
+
+    /**
+     * Compacts the journal once most of it is outdated.
+     */
+    private void compact() {
+        if (journalRecords > 2 * refs.size() + 64) {
+            try {
+                writeJournal();
+            } catch (IOException e) {
+                diagnostics.report(ErrorCode.IO_ERROR, null, "Blob reference file error", e);
+            }
+        }
+    }
+
+    private void sweep() {
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(folder, Files::isDirectory)) {
+            for (Path prefix : prefixes) {
+                try (DirectoryStream<Path> blobs = Files.newDirectoryStream(prefix)) {
+                    for (Path blob : blobs)
+                        remove(blob);
+                }
+            }
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, null, "Blob collection error", e);
+        }
+    }
+
+    private synchronized void remove(Path blob) throws IOException {
+        if (!closed && !counts.containsKey(blob.getFileName().toString()))
+            Files.deleteIfExists(blob);
+    }
+}
@@ -0,0 +1,334 @@
+package sherp.simpledatabase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed entry data file. After a 4 byte magic number, the file is a sequence of blocks of up to about
+ * 64 KiB of UTF-8 lines, each compressed on its own. Every block starts with a header holding its uncompressed
+ * and compressed length, its amount of lines and a checksum, so reading a range of lines only decompresses
+ * the blocks holding them, and appending lines only adds blocks.
+ * <p>
+ * Blocks are never written over. Small blocks left at the end by appends are merged by writing a new block
+ * after them which replaces them, so a crash while writing it leaves the previous blocks in place.
+ * Reading stops at the first incomplete or damaged block at the end of the file. Such a block was written
+ * after the last log checkpoint, so its lines are only written again if the record of their change reached
+ * the change log before the crash.
+ */
+class BlockFile {
+    static final int MAGIC = 0x53445A01;
+    private static final int HEADER = 20;
+    private static final int BLOCK_SIZE = 64 << 10;
+    // Amount of small blocks at the end of a file before they are merged
+    private static final int MERGE = 64;
+    // Compressors are costly to create compared to compressing a few lines, so each thread keeps its own
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+    };
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    /**
+     * Position and size of the blocks of one file which are in use, in file order. Never changed once built.
+     */
+    static class Index {
+        final long[] positions;
+        final int[] rawLengths;
+        final int[] storedLengths;
+        // Line number of the first line of every block, and the amount of lines at the end
+        final int[] firstLines;
+        // End of the last block, where new blocks are written
+        final long end;
+        // Bytes of blocks replaced by later ones
+        final long unused;
+
+        Index(long[] positions, int[] rawLengths, int[] storedLengths, int[] firstLines, long end, long unused) {
+            this.positions = positions;
+            this.rawLengths = rawLengths;
+            this.storedLengths = storedLengths;
+            this.firstLines = firstLines;
+            this.end = end;
+            this.unused = unused;
+        }
+
+        int blocks() {
+            return positions.length;
+        }
+
+        int lines() {
+            return firstLines[positions.length];
+        }
+
+        /**
+         * Returns whether replaced blocks take more space than the blocks in use, and the file is worth rewriting.
+         */
+        boolean fragmented() {
+            return unused > Math.max(storedSize(this, 0, blocks()), BLOCK_SIZE);
+        }
+
+        // Returns the block holding the line
+        int block(int line) {
+            int found = Arrays.binarySearch(firstLines, 0, positions.length, line);
+            return found >= 0 ? found : -found - 2;
+        }
+    }
+
+    // Header fields of one block
+    private static class Block {
+        final long position;
+        final int rawLength;
+        final int storedLength;
+        final int lines;
+        final int replaces;
+
+        Block(long position, int rawLength, int storedLength, int lines, int replaces) {
+            this.position = position;
+            this.rawLength = rawLength;
+            this.storedLength = storedLength;
+            this.lines = lines;
+            this.replaces = replaces;
+        }
+    }
+
+    /**
+     * Reads the block headers of the file.
+     */
+    static Index index(FileChannel channel) throws IOException {
+        List<Block> written = new ArrayList<>();
+        long size = channel.size();
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        // A file created just before a crash may still be empty
+        if (size >= 4 && (channel.read(magic, 0) < 4 || magic.getInt(0) != MAGIC))
+            throw new IOException("Not a compressed data file");
+        long position = 4;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (position + HEADER <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            Block block = new Block(position, header.getInt(0), header.getInt(4), header.getInt(8), header.getInt(16));
+            if (block.rawLength < 0 || block.storedLength < 0 || block.lines <= 0 || block.replaces < 0 ||
+                    position + HEADER + block.storedLength > size)
+                break;
+            written.add(block);
+            position += HEADER + block.storedLength;
+        }
+        // Only the last block can be torn, check it before trusting it
+        if (!written.isEmpty()) {
+            Block last = written.get(written.size() - 1);
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER + last.storedLength);
+            readFully(channel, buffer, last.position);
+            if (!valid(buffer)) {
+                written.remove(written.size() - 1);
+                position = last.position;
+            }
+        }
+        return build(new Index(new long[0], new int[0], new int[0], new int[1], 4, 0), written, position);
+    }
+
+    // Returns the index with the blocks added, in file order
+    private static Index build(Index index, List<Block> added, long end) {
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < index.blocks(); i++)
+            blocks.add(new Block(index.positions[i], index.rawLengths[i], index.storedLengths[i],
+                    index.firstLines[i + 1] - index.firstLines[i], 0));
+        long unused = index.unused;
+        for (Block block : added) {
+            for (int i = 0; i < block.replaces && !blocks.isEmpty(); i++)
+                unused += HEADER + blocks.remove(blocks.size() - 1).storedLength;
+            blocks.add(block);
+        }
+        long[] positions = new long[blocks.size()];
+        int[] rawLengths = new int[blocks.size()];
+        int[] storedLengths = new int[blocks.size()];
+        int[] firstLines = new int[blocks.size() + 1];
+        for (int i = 0; i < positions.length; i++) {
+            Block block = blocks.get(i);
+            positions[i] = block.position;
+            rawLengths[i] = block.rawLength;
+            storedLengths[i] = block.storedLength;
+            firstLines[i + 1] = firstLines[i] + block.lines;
+        }
+        return new Index(positions, rawLengths, storedLengths, firstLines, end, unused);
+    }
+
+    /**
+     * Writes the lines as a new file. Returns the index of the written file.
+     */
+    static Index write(FileChannel channel, List<String> lines) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4).putInt(0, MAGIC);
+        writeFully(channel, magic, 0);
+        Index empty = new Index(new long[0], new int[0], new int[0], new int[1], 4, 0);
+        List<Block> added = writeBlocks(channel, 4, lines, 0);
+        long end = end(added, 4);
+        channel.truncate(end);
+        return build(empty, added, end);
+    }
+
+    /**
+     * Appends the lines after the blocks of the index, dropping anything past them.
+     * Returns the index of the longer file.
+     */
+    static Index append(FileChannel channel, Index index, List<String> lines) throws IOException {
+        // Small blocks at the end are merged with the new lines once there are enough of them
+        int small = 0;
+        while (small < index.blocks() && index.rawLengths[index.blocks() - 1 - small] < BLOCK_SIZE)
+            small++;
+        int replaces = 0;
+        if (small >= MERGE) {
+            List<String> tail = lines(read(channel, index, index.blocks() - small, index.blocks()));
+            tail.addAll(lines);
+            lines = tail;
+            replaces = small;
+        }
+        if (index.blocks() == 0)
+            writeFully(channel, ByteBuffer.allocate(4).putInt(0, MAGIC), 0);
+        List<Block> added = writeBlocks(channel, index.end, lines, replaces);
+        long end = end(added, index.end);
+        channel.truncate(end);
+        return build(index, added, end);
+    }
+
+    // Writes the lines as blocks from the position, the first replacing the given amount of blocks before it
+    private static List<Block> writeBlocks(FileChannel channel, long position, List<String> lines, int replaces) throws IOException {
+        List<Block> added = new ArrayList<>();
+        Deflater deflater = DEFLATER.get();
+        int from = 0;
+        while (from < lines.size()) {
+            StringBuilder text = new StringBuilder();
+            int to = from;
+            while (to < lines.size() && (to == from || text.length() < BLOCK_SIZE))
+                text.append(lines.get(to++)).append('\n');
+            byte[] raw = text.toString().getBytes(StandardCharsets.UTF_8);
+            byte[] stored = deflate(deflater, raw);
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            ByteBuffer block = ByteBuffer.allocate(HEADER + stored.length);
+            block.putInt(raw.length).putInt(stored.length).putInt(to - from).putInt((int) crc.getValue())
+                    .putInt(added.isEmpty() ? replaces : 0).put(stored);
+            block.flip();
+            writeFully(channel, block, position);
+            added.add(new Block(position, raw.length, stored.length, to - from, added.isEmpty() ? replaces : 0));
+            position += HEADER + stored.length;
+            from = to;
+        }
+        return added;
+    }
+
+    // Returns the end of the last written block
+    private static long end(List<Block> added, long start) {
+        if (added.isEmpty())
+            return start;
+        Block last = added.get(added.size() - 1);
+        return last.position + HEADER + last.storedLength;
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] buffer = new byte[Math.max(64, raw.length / 2)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Reads the uncompressed content of the blocks {@code from} (inclusive) to {@code to} (exclusive).
+     *
+     * @throws IOException if a block is damaged
+     */
+    static byte[] read(FileChannel channel, Index index, int from, int to) throws IOException {
+        long size = 0;
+        for (int i = from; i < to; i++)
+            size += index.rawLengths[i];
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Data too large to read at once");
+        byte[] raw = new byte[(int) size];
+        int offset = 0;
+        Inflater inflater = INFLATER.get();
+        for (int i = from; i < to; i++) {
+            ByteBuffer block = ByteBuffer.allocate(HEADER + index.storedLengths[i]);
+            readFully(channel, block, index.positions[i]);
+            if (!valid(block))
+                throw new IOException("Block " + i + " is damaged");
+            inflater.reset();
+            inflater.setInput(block.array(), HEADER, index.storedLengths[i]);
+            try {
+                int end = offset + index.rawLengths[i];
+                while (offset < end) {
+                    int inflated = inflater.inflate(raw, offset, end - offset);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput()))
+                        throw new IOException("Block " + i + " is damaged");
+                    offset += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Block " + i + " is damaged", e);
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * Returns the stored size of the blocks {@code from} (inclusive) to {@code to} (exclusive), with their headers.
+     */
+    static long storedSize(Index index, int from, int to) {
+        long size = 0;
+        for (int i = from; i < to; i++)
+            size += HEADER + index.storedLengths[i];
+        return size;
+    }
+
+    /**
+     * Splits uncompressed content into lines.
+     */
+    static List<String> lines(byte[] raw) {
+        String text = new String(raw, StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            lines.add(text.substring(start, end));
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    // Returns whether the stored bytes of a block read with its header match its checksum
+    private static boolean valid(ByteBuffer block) {
+        CRC32 crc = new CRC32();
+        crc.update(block.array(), HEADER, block.capacity() - HEADER);
+        return (int) crc.getValue() == block.getInt(12);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of file");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+    }
+}
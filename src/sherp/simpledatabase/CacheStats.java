@@ -0,0 +1,70 @@
+package sherp.simpledatabase;
+
+/**
+ * Snapshot of the entry data cache counters.
+ */
+public class CacheStats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long size;
+    private final long budget;
+
+    CacheStats(long hits, long misses, long evictions, long size, long budget) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the amount of data accesses served from memory.
+     *
+     * @return Amount of hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the amount of data accesses that had to read the entry data file.
+     *
+     * @return Amount of misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the amount of entries whose data was evicted to stay within the budget.
+     *
+     * @return Amount of evictions
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the estimated size of the cached data, in bytes.
+     *
+     * @return Cached data size
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the configured cache budget, in bytes.
+     *
+     * @return Cache budget
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    @Override
+    public String toString() {
+        return "Hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + ", size: " + size + "/" + budget;
+    }
+}
@@ -0,0 +1,156 @@
+package sherp.simpledatabase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single change of the database, delivered to {@link ChangeSubscriber}s in the order the changes were made.
+ */
+public class ChangeEvent {
+    /**
+     * Kind of change.
+     */
+    public enum Type {
+        /**
+         * An entry was added. {@link #getLines()} holds its data.
+         */
+        ENTRY_ADDED,
+        /**
+         * Lines were appended to the entry data. {@link #getIndex()} is the index of the first appended line,
+         * {@link #getLines()} holds the appended lines.
+         */
+        DATA_APPENDED,
+        /**
+         * The data line at {@link #getIndex()} was removed.
+         */
+        DATA_REMOVED,
+        /**
+         * The entry data was cleared.
+         */
+        DATA_CLEARED,
+        /**
+         * Files were added to the entry. {@link #getFiles()} holds their paths.
+         */
+        FILES_ADDED,
+        /**
+         * The file at {@link #getIndex()} was removed. {@link #getFiles()} holds its name or path.
+         */
+        FILE_REMOVED,
+        /**
+         * The entry files were cleared.
+         */
+        FILES_CLEARED,
+        /**
+         * The entry was renamed to {@link #getNewName()}.
+         */
+        RENAMED,
+        /**
+         * The entry was deleted.
+         */
+        DELETED
+    }
+
+    private final Type type;
+    private final long sequence;
+    private final String entryName;
+    private final String newName;
+    private final int index;
+    private final List<String> lines;
+    private final List<String> files;
+
+    ChangeEvent(Type type, long sequence, String entryName, String newName, int index, List<String> lines, List<String> files) {
+        this.type = type;
+        this.sequence = sequence;
+        this.entryName = entryName;
+        this.newName = newName;
+        this.index = index;
+        this.lines = lines;
+        this.files = files;
+    }
+
+    /**
+     * Returns the kind of change.
+     *
+     * @return Change type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the sequence number of the change. Sequence numbers increase by one with every change,
+     * so a gap means changes were missed.
+     *
+     * @return Sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the name of the changed entry, before a rename.
+     *
+     * @return Entry name
+     */
+    public String getEntryName() {
+        return entryName;
+    }
+
+    /**
+     * Returns the new entry name of a {@link Type#RENAMED} change, {@code null} otherwise.
+     *
+     * @return New entry name
+     */
+    public String getNewName() {
+        return newName;
+    }
+
+    /**
+     * Returns the line or file index of the change, {@code -1} if the change has none.
+     *
+     * @return Index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the added data lines. Empty if the change added no lines.
+     *
+     * @return Unmodifiable list of lines
+     */
+    public List<String> getLines() {
+        return lines;
+    }
+
+    /**
+     * Returns the added or removed files. Empty if the change added or removed no files.
+     *
+     * @return Unmodifiable list of file paths or names
+     */
+    public List<String> getFiles() {
+        return files;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        str.append('#').append(sequence).append(' ').append(type).append(" '").append(entryName).append('\'');
+        if (newName != null)
+            str.append(" -> '").append(newName).append('\'');
+        if (index >= 0)
+            str.append(" at ").append(index);
+        if (!lines.isEmpty())
+            str.append(' ').append(lines);
+        if (!files.isEmpty())
+            str.append(' ').append(files);
+        return str.toString();
+    }
+
+    static List<String> copy(List<String> values) {
+        if (values == null || values.isEmpty())
+            return Collections.emptyList();
+        return Collections.unmodifiableList(new ArrayList<>(values));
+    }
+}
@@ -0,0 +1,179 @@
+package sherp.simpledatabase;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes database changes to subscribers. Changes are numbered and buffered per subscriber while they
+ * are published, under the lock of the changed entry or the database. Delivery runs on the subscriber's
+ * executor and follows the demand requested by the subscriber. A subscriber that falls behind by more
+ * than its buffer size fails with an error instead of slowing down writers.
+ */
+class ChangeFeed {
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Diagnostics diagnostics;
+    private long sequence;
+
+    ChangeFeed(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    boolean isActive() {
+        return !subscriptions.isEmpty();
+    }
+
+    void subscribe(ChangeSubscriber subscriber, Executor executor, int bufferSize) {
+        Subscription subscription = new Subscription(this, subscriber, executor, bufferSize);
+        subscriptions.add(subscription);
+        subscription.schedule();
+    }
+
+    void publish(ChangeEvent.Type type, String entryName, String newName, int index, List<String> lines, List<String> files) {
+        if (subscriptions.isEmpty())
+            return;
+        List<String> addedLines = ChangeEvent.copy(lines);
+        List<String> changedFiles = ChangeEvent.copy(files);
+        synchronized (this) {
+            ChangeEvent event = new ChangeEvent(type, ++sequence, entryName, newName, index, addedLines, changedFiles);
+            for (Subscription subscription : subscriptions)
+                subscription.offer(event);
+        }
+    }
+
+    void close() {
+        for (Subscription subscription : subscriptions)
+            subscription.complete();
+        subscriptions.clear();
+    }
+
+    private void remove(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    private static class Subscription implements ChangeSubscription, Runnable {
+        private final ChangeFeed feed;
+        private final ChangeSubscriber subscriber;
+        private final Executor executor;
+        private final int bufferSize;
+        private final AtomicInteger work = new AtomicInteger();
+        // Guarded by this
+        private final ArrayDeque<ChangeEvent> buffer = new ArrayDeque<>();
+        private long demand;
+        private boolean completed;
+        private Throwable error;
+        private boolean terminated;
+        // Only used by the delivery task
+        private boolean subscribed;
+
+        Subscription(ChangeFeed feed, ChangeSubscriber subscriber, Executor executor, int bufferSize) {
+            this.feed = feed;
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.bufferSize = bufferSize;
+        }
+
+        void offer(ChangeEvent event) {
+            synchronized (this) {
+                if (terminated || error != null)
+                    return;
+                if (buffer.size() == bufferSize) {
+                    error = new IllegalStateException("Subscriber fell behind by more than " + bufferSize + " changes");
+                    buffer.clear();
+                    feed.remove(this);
+                } else {
+                    buffer.add(event);
+                    if (demand == 0)
+                        return;
+                }
+            }
+            schedule();
+        }
+
+        void complete() {
+            synchronized (this) {
+                completed = true;
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            boolean failed = false;
+            synchronized (this) {
+                if (terminated)
+                    return;
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Non-positive request: " + n);
+                    buffer.clear();
+                    failed = true;
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            if (failed)
+                feed.remove(this);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                terminated = true;
+                buffer.clear();
+            }
+            feed.remove(this);
+        }
+
+        void schedule() {
+            if (work.getAndIncrement() == 0)
+                executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                if (!subscribed) {
+                    subscribed = true;
+                    subscriber.onSubscribe(this);
+                }
+                while (true) {
+                    ChangeEvent event = null;
+                    Throwable failure = null;
+                    synchronized (this) {
+                        if (terminated)
+                            break;
+                        if (error != null) {
+                            failure = error;
+                            terminated = true;
+                        } else if (demand > 0 && !buffer.isEmpty()) {
+                            event = buffer.poll();
+                            if (demand != Long.MAX_VALUE)
+                                demand--;
+                        } else if (completed && buffer.isEmpty()) {
+                            terminated = true;
+                        } else {
+                            break;
+                        }
+                    }
+                    if (failure != null) {
+                        subscriber.onError(failure);
+                    } else if (event == null) {
+                        subscriber.onComplete();
+                    } else {
+                        try {
+                            subscriber.onNext(event);
+                        } catch (RuntimeException e) {
+                            cancel();
+                            feed.diagnostics.report(ErrorCode.SUBSCRIBER_ERROR, null, "Change subscriber error", e);
+                        }
+                    }
+                }
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package sherp.simpledatabase;
+
+/**
+ * Receives the changes of a database, see {@link Database#subscribe(ChangeSubscriber)}.
+ * Follows the contract of {@code java.util.concurrent.Flow.Subscriber}: {@link #onSubscribe} is called first,
+ * then {@link #onNext} at most as many times as requested through the subscription, and finally
+ * {@link #onComplete} when the database is closed, or {@link #onError} if the subscription fails.
+ * Methods are called one at a time, never while the database holds a lock.
+ */
+public interface ChangeSubscriber {
+    /**
+     * Called once before any other method.
+     *
+     * @param subscription subscription used to request changes or cancel
+     */
+    void onSubscribe(ChangeSubscription subscription);
+
+    /**
+     * Called for every requested change.
+     *
+     * @param event the change
+     */
+    void onNext(ChangeEvent event);
+
+    /**
+     * Called when the subscription fails, for example because more changes were made than could be buffered
+     * for this subscriber. No further methods are called.
+     *
+     * @param error failure cause
+     */
+    void onError(Throwable error);
+
+    /**
+     * Called when the database is closed. No further methods are called.
+     */
+    void onComplete();
+}
@@ -0,0 +1,19 @@
+package sherp.simpledatabase;
+
+/**
+ * Link between the database and one {@link ChangeSubscriber}.
+ * Follows the contract of {@code java.util.concurrent.Flow.Subscription}.
+ */
+public interface ChangeSubscription {
+    /**
+     * Requests up to {@code n} more changes. Requests add up, {@code Long.MAX_VALUE} requests all changes.
+     *
+     * @param n amount of changes, must be positive
+     */
+    void request(long n);
+
+    /**
+     * Stops the delivery of changes. Changes that are not yet delivered are dropped.
+     */
+    void cancel();
+}
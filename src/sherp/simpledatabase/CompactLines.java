@@ -0,0 +1,203 @@
+package sherp.simpledatabase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * List of lines stored UTF-8 encoded in one byte arena, line {@code i} spanning
+ * {@code [offsets[i], offsets[i + 1])}. All methods synchronize on the list, like a
+ * {@code Collections.synchronizedList}, so iteration must be synchronized by the caller.
+ */
+class CompactLines extends AbstractList<String> implements RandomAccess {
+    private static final int OFFSET_SIZE = 4;
+
+    private final boolean direct;
+    private ByteBuffer arena;
+    private int[] offsets;
+    private int size;
+
+    CompactLines(Collection<String> lines, boolean direct) {
+        this.direct = direct;
+        arena = allocate(64);
+        offsets = new int[Math.max(16, lines.size() + 1)];
+        addAll(lines);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Returns the amount of memory a line takes in the arena.
+     */
+    static long weigh(String line) {
+        long length = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < line.length() && Character.isLowSurrogate(line.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length + OFFSET_SIZE;
+    }
+
+    synchronized long weight() {
+        return offsets[size] + (long) OFFSET_SIZE * size;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized String get(int index) {
+        check(index, size);
+        int start = offsets[index];
+        int length = offsets[index + 1] - start;
+        if (arena.hasArray())
+            return new String(arena.array(), arena.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length];
+        ByteBuffer line = arena.duplicate();
+        line.position(start);
+        line.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the encoded bytes of the line as a read-only slice of the arena.
+     * The slice is only valid until the list is changed.
+     */
+    synchronized ByteBuffer getLine(int index) {
+        check(index, size);
+        ByteBuffer line = arena.asReadOnlyBuffer();
+        line.limit(offsets[index + 1]).position(offsets[index]);
+        return line.slice();
+    }
+
+    @Override
+    public synchronized void add(int index, String line) {
+        check(index, size + 1);
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        int at = offsets[index];
+        int used = offsets[size];
+        ensureCapacity(used + bytes.length);
+        move(at, at + bytes.length, used - at);
+        ByteBuffer target = arena.duplicate();
+        target.position(at);
+        target.put(bytes);
+
+        if (size + 2 > offsets.length)
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        System.arraycopy(offsets, index + 1, offsets, index + 2, size - index);
+        for (int i = index + 2; i <= size + 1; i++)
+            offsets[i] += bytes.length;
+        offsets[index + 1] = at + bytes.length;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public synchronized boolean addAll(Collection<? extends String> lines) {
+        for (String line : lines)
+            add(size, line);
+        return !lines.isEmpty();
+    }
+
+    @Override
+    public synchronized String remove(int index) {
+        String line = get(index);
+        int start = offsets[index];
+        int end = offsets[index + 1];
+        move(end, start, offsets[size] - end);
+        System.arraycopy(offsets, index + 2, offsets, index + 1, size - index - 1);
+        for (int i = index + 1; i < size; i++)
+            offsets[i] -= end - start;
+        size--;
+        modCount++;
+        return line;
+    }
+
+    @Override
+    public synchronized String set(int index, String line) {
+        String previous = remove(index);
+        add(index, line);
+        return previous;
+    }
+
+    @Override
+    public synchronized void clear() {
+        arena = allocate(64);
+        offsets = new int[16];
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public synchronized Object[] toArray() {
+        return super.toArray();
+    }
+
+    @Override
+    public synchronized <T> T[] toArray(T[] array) {
+        return super.toArray(array);
+    }
+
+    /**
+     * Returns a view over a copy of the lines, without decoding them.
+     */
+    synchronized DataView view() {
+        int used = offsets[size];
+        ByteBuffer copy = allocate(used);
+        ByteBuffer source = arena.duplicate();
+        source.limit(used);
+        copy.put(source);
+        copy.flip();
+        return new DataView(copy, StandardCharsets.UTF_8, Arrays.copyOf(offsets, size), Arrays.copyOfRange(offsets, 1, size + 1));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity < 0)
+            throw new OutOfMemoryError("Entry data too large");
+        if (capacity <= arena.capacity())
+            return;
+        ByteBuffer grown = allocate((int) Math.min(Integer.MAX_VALUE, Math.max(capacity, arena.capacity() * 2L)));
+        ByteBuffer source = arena.duplicate();
+        source.limit(offsets[size]);
+        grown.put(source);
+        grown.clear();
+        arena = grown;
+    }
+
+    private void move(int from, int to, int length) {
+        if (length == 0 || from == to)
+            return;
+        if (arena.hasArray()) {
+            byte[] array = arena.array();
+            System.arraycopy(array, arena.arrayOffset() + from, array, arena.arrayOffset() + to, length);
+            return;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = arena.duplicate();
+        buffer.position(from);
+        buffer.get(bytes);
+        buffer.position(to);
+        buffer.put(bytes);
+    }
+
+    private static void check(int index, int size) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+}
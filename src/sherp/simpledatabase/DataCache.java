@@ -0,0 +1,110 @@
+package sherp.simpledatabase;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class DataCache {
+    private static final long LINE_OVERHEAD = 56;
+
+    private final long budget;
+    private final LinkedHashMap<Entry, Node> nodes;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private static class Node {
+        final List<String> data;
+        long weight;
+
+        Node(List<String> data, long weight) {
+            this.data = data;
+            this.weight = weight;
+        }
+    }
+
+    DataCache(long budget) {
+        if (budget <= 0)
+            throw new IllegalArgumentException("Cache budget must be positive");
+        this.budget = budget;
+        nodes = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    static long weigh(String line) {
+        return LINE_OVERHEAD + 2L * line.length();
+    }
+
+    static long weigh(List<String> data) {
+        if (data instanceof CompactLines)
+            return ((CompactLines) data).weight();
+        long weight = 0;
+        synchronized (data) {
+            for (String line : data)
+                weight += weigh(line);
+        }
+        return weight;
+    }
+
+    void hit(Entry entry, List<String> data) {
+        synchronized (this) {
+            hits++;
+            Node node = nodes.get(entry);
+            if (node != null && node.data == data)
+                return;
+        }
+        admit(entry, data);
+    }
+
+    void miss(Entry entry, List<String> data) {
+        long weight = weigh(data);
+        synchronized (this) {
+            misses++;
+            admit(entry, data, weight);
+        }
+    }
+
+    synchronized void resize(Entry entry, long delta) {
+        Node node = nodes.get(entry);
+        if (node == null)
+            return;
+        node.weight += delta;
+        weight += delta;
+        evict();
+    }
+
+    void admit(Entry entry, List<String> data) {
+        long weight = weigh(data);
+        synchronized (this) {
+            admit(entry, data, weight);
+        }
+    }
+
+    private void admit(Entry entry, List<String> data, long weight) {
+        Node node = nodes.put(entry, new Node(data, weight));
+        if (node != null)
+            this.weight -= node.weight;
+        this.weight += weight;
+        evict();
+    }
+
+    synchronized void remove(Entry entry) {
+        Node node = nodes.remove(entry);
+        if (node != null)
+            weight -= node.weight;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Entry, Node>> iterator = nodes.entrySet().iterator();
+        while (weight > budget && nodes.size() > 1 && iterator.hasNext()) {
+            weight -= iterator.next().getValue().weight;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    synchronized CacheStats stats() {
+        return new CacheStats(hits, misses, evictions, weight, budget);
+    }
+}
@@ -0,0 +1,278 @@
+package sherp.simpledatabase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Secondary index over the data lines of all database entries. Every data line is mapped to a key,
+ * either the line itself or the result of a key function, and the index finds the entries holding a key.
+ * Indexes are created with {@link Database#createIndex} and kept up to date on every data change.
+ */
+public class DataIndex {
+    private static final int MAGIC = 0x53444958;
+    private static final byte VERSION = 2;
+
+    final String name;
+    final IndexType type;
+    private final Function<String, String> keyFunction;
+    // Caller-supplied version of the key function, a saved index is only reused with the same version
+    private final String keyVersion;
+    // Key -> entries holding it, with the amount of lines that produced the key
+    private final Map<String, Map<Entry, Integer>> keys;
+    private final Map<Entry, Map<String, Integer>> entryKeys;
+
+    DataIndex(String name, IndexType type, Function<String, String> keyFunction, String keyVersion) {
+        this.name = name;
+        this.type = type;
+        this.keyFunction = keyFunction;
+        this.keyVersion = keyVersion;
+        keys = type == IndexType.SORTED ? new TreeMap<String, Map<Entry, Integer>>() : new HashMap<String, Map<Entry, Integer>>();
+        entryKeys = new HashMap<>();
+    }
+
+    /**
+     * Returns the index name.
+     *
+     * @return Index name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the index type.
+     *
+     * @return Index type
+     */
+    public IndexType getType() {
+        return type;
+    }
+
+    /**
+     * Returns the entries holding a data line with the given key, in database order.
+     *
+     * @param key key to be found
+     * @return Array of the found entries
+     */
+    public synchronized Entry[] find(String key) {
+        Map<Entry, Integer> found = keys.get(key);
+        if (found == null)
+            return new Entry[]{};
+        return sorted(found.keySet());
+    }
+
+    /**
+     * Returns the entries holding a data line with a key that starts with the given prefix, in database order.
+     *
+     * @param prefix key prefix
+     * @return Array of the found entries
+     * @throws UnsupportedOperationException if the index is not {@link IndexType#SORTED}
+     */
+    public synchronized Entry[] findPrefix(String prefix) {
+        NavigableMap<String, Map<Entry, Integer>> sorted = sorted();
+        Set<Entry> found = new HashSet<>();
+        for (Map.Entry<String, Map<Entry, Integer>> key : sorted.tailMap(prefix, true).entrySet()) {
+            if (!key.getKey().startsWith(prefix))
+                break;
+            found.addAll(key.getValue().keySet());
+        }
+        return sorted(found);
+    }
+
+    /**
+     * Returns the entries holding a data line with a key between {@code from} (inclusive) and {@code to} (exclusive), in database order.
+     *
+     * @param from lowest key
+     * @param to key above the highest key
+     * @return Array of the found entries
+     * @throws UnsupportedOperationException if the index is not {@link IndexType#SORTED}
+     */
+    public synchronized Entry[] findRange(String from, String to) {
+        NavigableMap<String, Map<Entry, Integer>> sorted = sorted();
+        Set<Entry> found = new HashSet<>();
+        if (from.compareTo(to) < 0) {
+            for (Map<Entry, Integer> entries : sorted.subMap(from, true, to, false).values())
+                found.addAll(entries.keySet());
+        }
+        return sorted(found);
+    }
+
+    private NavigableMap<String, Map<Entry, Integer>> sorted() {
+        if (type != IndexType.SORTED)
+            throw new UnsupportedOperationException("Index \"" + name + "\" is not sorted");
+        return (NavigableMap<String, Map<Entry, Integer>>) keys;
+    }
+
+    private static Entry[] sorted(Collection<Entry> entries) {
+        Entry[] array = entries.toArray(new Entry[]{});
+        Arrays.sort(array, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(a.position, b.position);
+            }
+        });
+        return array;
+    }
+
+    private String key(String line) {
+        return keyFunction == null ? line : keyFunction.apply(line);
+    }
+
+    /**
+     * Replaces the keys of the entry with the keys of its data.
+     */
+    synchronized void set(Entry entry, String[] data) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String line : data) {
+            String key = key(line);
+            if (key != null)
+                counts.merge(key, 1, Integer::sum);
+        }
+        set(entry, counts);
+    }
+
+    private void set(Entry entry, Map<String, Integer> counts) {
+        remove(entry);
+        if (counts.isEmpty())
+            return;
+        entryKeys.put(entry, counts);
+        for (Map.Entry<String, Integer> count : counts.entrySet())
+            link(count.getKey(), entry, count.getValue());
+    }
+
+    synchronized void add(Entry entry, List<String> lines) {
+        Map<String, Integer> counts = entryKeys.get(entry);
+        for (String line : lines) {
+            String key = key(line);
+            if (key == null)
+                continue;
+            if (counts == null) {
+                counts = new HashMap<>();
+                entryKeys.put(entry, counts);
+            }
+            counts.merge(key, 1, Integer::sum);
+            link(key, entry, 1);
+        }
+    }
+
+    /**
+     * Drops one occurrence of the key of a removed data line, without going over the rest of the data.
+     */
+    synchronized void removeLine(Entry entry, String line) {
+        String key = key(line);
+        Map<String, Integer> counts = entryKeys.get(entry);
+        if (key == null || counts == null || !counts.containsKey(key))
+            return;
+        if (counts.merge(key, -1, Integer::sum) == 0) {
+            counts.remove(key);
+            if (counts.isEmpty())
+                entryKeys.remove(entry);
+        }
+        Map<Entry, Integer> entries = keys.get(key);
+        if (entries.merge(entry, -1, Integer::sum) == 0) {
+            entries.remove(entry);
+            if (entries.isEmpty())
+                keys.remove(key);
+        }
+    }
+
+    synchronized void remove(Entry entry) {
+        Map<String, Integer> counts = entryKeys.remove(entry);
+        if (counts == null)
+            return;
+        for (String key : counts.keySet()) {
+            Map<Entry, Integer> entries = keys.get(key);
+            entries.remove(entry);
+            if (entries.isEmpty())
+                keys.remove(key);
+        }
+    }
+
+    private void link(String key, Entry entry, int count) {
+        Map<Entry, Integer> entries = keys.get(key);
+        if (entries == null) {
+            entries = new HashMap<>();
+            keys.put(key, entries);
+        }
+        entries.merge(entry, count, Integer::sum);
+    }
+
+    /**
+     * Serializes the index together with its key function version and the log sequence number it is valid for.
+     */
+    synchronized byte[] encode(long sequence) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(type.ordinal());
+            out.writeBoolean(keyFunction != null);
+            LogRecord.writeString(out, keyVersion == null ? "" : keyVersion);
+            out.writeLong(sequence);
+            out.writeInt(entryKeys.size());
+            for (Map.Entry<Entry, Map<String, Integer>> entry : entryKeys.entrySet()) {
+                LogRecord.writeString(out, entry.getKey().name);
+                out.writeInt(entry.getValue().size());
+                for (Map.Entry<String, Integer> count : entry.getValue().entrySet()) {
+                    LogRecord.writeString(out, count.getKey());
+                    out.writeInt(count.getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the keys of every entry from a serialized index. Returns {@code null} if the index was saved
+     * in an older format, with another type or key function version, or at another log sequence number.
+     * An index keyed by a function without a version is never reused, as the function may have changed.
+     */
+    static Map<String, Map<String, Integer>> decode(byte[] bytes, IndexType type, boolean keyed, String keyVersion,
+                                                    long sequence) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not an index file");
+        if (in.readByte() != VERSION || in.readByte() != type.ordinal() || in.readBoolean() != keyed)
+            return null;
+        String savedVersion = LogRecord.readString(in);
+        if (keyed && (keyVersion == null || !keyVersion.equals(savedVersion)))
+            return null;
+        if (in.readLong() != sequence)
+            return null;
+        int size = in.readInt();
+        Map<String, Map<String, Integer>> entries = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String entryName = LogRecord.readString(in);
+            int count = in.readInt();
+            Map<String, Integer> counts = new HashMap<>();
+            for (int j = 0; j < count; j++)
+                counts.put(LogRecord.readString(in), in.readInt());
+            entries.put(entryName, counts);
+        }
+        return entries;
+    }
+
+    synchronized void load(Entry entry, Map<String, Integer> counts) {
+        if (counts == null)
+            remove(entry);
+        else
+            set(entry, new HashMap<>(counts));
+    }
+}
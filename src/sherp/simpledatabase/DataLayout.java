@@ -0,0 +1,20 @@
+package sherp.simpledatabase;
+
+/**
+ * In-memory representation of entry data lines.
+ */
+public enum DataLayout {
+    /**
+     * Every line is a separate {@code String}.
+     */
+    STRINGS,
+    /**
+     * Lines of an entry are kept UTF-8 encoded in a single growable byte array, with an offset per line.
+     * Lines are decoded into a {@code String} only when requested.
+     */
+    COMPACT,
+    /**
+     * Like {@link #COMPACT}, but the bytes are kept off the Java heap in a direct {@code ByteBuffer}.
+     */
+    OFF_HEAP
+}
@@ -0,0 +1,131 @@
+package sherp.simpledatabase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only view of entry data lines backed by a single buffer.
+ * Lines are exposed as buffer slices without the line separator, so no {@code String} is created unless requested.
+ */
+public class DataView implements Iterable<ByteBuffer> {
+    private final ByteBuffer buffer;
+    private final Charset charset;
+    private int[] starts;
+    private int[] ends;
+    private int size;
+
+    DataView(ByteBuffer buffer, Charset charset) {
+        this.buffer = buffer.asReadOnlyBuffer();
+        this.charset = charset;
+        starts = new int[16];
+        ends = new int[16];
+        index();
+    }
+
+    DataView(ByteBuffer buffer, Charset charset, int[] starts, int[] ends) {
+        this.buffer = buffer.asReadOnlyBuffer();
+        this.charset = charset;
+        this.starts = starts;
+        this.ends = ends;
+        size = starts.length;
+    }
+
+    static DataView of(String[] data) {
+        StringBuilder str = new StringBuilder();
+        for (String line : data)
+            str.append(line).append('\n');
+        return new DataView(ByteBuffer.wrap(str.toString().getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8);
+    }
+
+    private void index() {
+        int start = 0;
+        int limit = buffer.limit();
+        for (int i = 0; i < limit; i++) {
+            if (buffer.get(i) != '\n')
+                continue;
+            int end = i > start && buffer.get(i - 1) == '\r' ? i - 1 : i;
+            add(start, end);
+            start = i + 1;
+        }
+        if (start < limit)
+            add(start, limit);
+    }
+
+    private void add(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * Returns the amount of data lines.
+     *
+     * @return Amount of data lines
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the encoded bytes of the line as a read-only slice of the underlying buffer.
+     *
+     * @param index line index
+     * @return Line bytes
+     * @throws IndexOutOfBoundsException if {@code index} is out of bounds
+     */
+    public ByteBuffer getLine(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        ByteBuffer line = buffer.duplicate();
+        line.limit(ends[index]).position(starts[index]);
+        return line.slice();
+    }
+
+    /**
+     * Returns the line decoded to a {@code String}.
+     *
+     * @param index line index
+     * @return Line
+     * @throws IndexOutOfBoundsException if {@code index} is out of bounds
+     */
+    public String getString(int index) {
+        return charset.decode(getLine(index)).toString();
+    }
+
+    /**
+     * Returns an iterator over the lines. To avoid allocating per line, the iterator returns
+     * the same buffer every time, positioned on the next line; it is only valid until the next call.
+     *
+     * @return Line iterator
+     */
+    @Override
+    public Iterator<ByteBuffer> iterator() {
+        final ByteBuffer line = buffer.duplicate();
+        return new Iterator<ByteBuffer>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public ByteBuffer next() {
+                if (index >= size)
+                    throw new NoSuchElementException();
+                line.limit(buffer.limit()).position(starts[index]);
+                line.limit(ends[index]);
+                index++;
+                return line;
+            }
+        };
+    }
+}
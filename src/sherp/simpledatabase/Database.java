@@ -1,32 +1,78 @@
 package sherp.simpledatabase;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.ArrayList;
 import java.util.Collection;
 
-public class Database extends EntryListener implements Iterable<Entry> {
+public class Database extends EntryListener implements Iterable<Entry>, AutoCloseable {
+    // Most batch operations applied with one log write, which is also how many entry monitors a batch holds at once
+    private static final int BATCH_GROUP = 256;
+
     String name;
     String location;
-    List<Entry> entries;
+    Map<String, Entry> index;
+    NavigableMap<Long, Entry> entries;
     FileManager fileManager;
+    DataCache cache;
+    WriteBehind writeBehind;
+    Map<String, DataIndex> indexes;
+    DataLayout layout;
+    VersionClock clock;
+    ChangeFeed changes;
+    Metrics metrics;
+    Diagnostics diagnostics;
+    private DatabaseJmx jmx;
+    private long sequence;
 
-    private Database(boolean read, String databasePath, String databaseName) {
+    private Database(boolean read, String databasePath, String databaseName, DatabaseOptions options) {
         name = databaseName.trim();
         location = databasePath.trim();
         if (name.equals(""))
             throw new IllegalArgumentException("Empty name");
 
-        entries = new CopyOnWriteArrayList<>();
+        index = new ConcurrentHashMap<>();
+        entries = new ConcurrentSkipListMap<>();
+        indexes = new ConcurrentHashMap<>();
+        layout = options.dataLayout;
+        clock = new VersionClock();
+        if (options.cacheBudget > 0)
+            cache = new DataCache(options.cacheBudget);
+        if (options.asyncWrites)
+            writeBehind = new WriteBehind(this);
         if (read) {
-            fileManager = FileManager.read(location, name);
-            Entry[] readEntries = fileManager.readEntries();
-            entries.addAll(Arrays.asList(readEntries));
-            for (Entry entry : readEntries)
+            fileManager = FileManager.read(location, name, options);
+            Entry[] readEntries = options.lazy || cache != null ? fileManager.listEntries(cache, layout) : fileManager.readEntries(options.loadExecutor, layout);
+            for (Entry entry : readEntries) {
+                put(entry);
                 entry.addListener(this);
+            }
         } else {
-            fileManager = FileManager.create(location, name);
+            fileManager = FileManager.create(location, name, options);
+        }
+        metrics = fileManager.metrics;
+        diagnostics = fileManager.diagnostics;
+        changes = new ChangeFeed(diagnostics);
+        if (options.jmx) {
+            jmx = new DatabaseJmx(this);
+            jmx.register();
         }
     }
 
@@ -39,7 +85,20 @@ public class Database extends EntryListener implements Iterable<Entry> {
      * @throws IllegalArgumentException if database name is empty
      */
     public static Database create(String name, String path) {
-        return new Database(false, path, name);
+        return new Database(false, path, name, new DatabaseOptions());
+    }
+
+    /**
+     * Creates a new database in the specified folder with the given options. Returns {@code Database} instance.
+     *
+     * @param name database name
+     * @param path absolute path of the parent folder
+     * @param options database options
+     * @return Database instance
+     * @throws IllegalArgumentException if database name is empty
+     */
+    public static Database create(String name, String path, DatabaseOptions options) {
+        return new Database(false, path, name, options);
     }
 
     /**
@@ -50,7 +109,7 @@ public class Database extends EntryListener implements Iterable<Entry> {
      * @throws IllegalArgumentException if database name is empty
      */
     public static Database create(String name) {
-        return new Database(false, System.getProperty("user.dir"), name);
+        return new Database(false, System.getProperty("user.dir"), name, new DatabaseOptions());
     }
 
     /**
@@ -62,7 +121,20 @@ public class Database extends EntryListener implements Iterable<Entry> {
      * @throws IllegalArgumentException if database name is empty
      */
     public static Database connect(String path, String name) {
-        return new Database(true, path, name);
+        return new Database(true, path, name, new DatabaseOptions());
+    }
+
+    /**
+     * Connects to the database in the specified location with the given options. Returns {@code Database} instance.
+     *
+     * @param path absolute path of the parent folder
+     * @param name database name
+     * @param options database options
+     * @return Database instance
+     * @throws IllegalArgumentException if database name is empty
+     */
+    public static Database connect(String path, String name, DatabaseOptions options) {
+        return new Database(true, path, name, options);
     }
 
     /**
@@ -73,7 +145,7 @@ public class Database extends EntryListener implements Iterable<Entry> {
      * @throws IllegalArgumentException if database name is empty
      */
     public static Database connect(String name) {
-        return new Database(true, System.getProperty("user.dir"), name);
+        return new Database(true, System.getProperty("user.dir"), name, new DatabaseOptions());
     }
 
     /**
@@ -104,14 +176,243 @@ public class Database extends EntryListener implements Iterable<Entry> {
         return location;
     }
 
+    /**
+     * Sets when the change log is forced to disk. {@link Durability#INTERVAL} forces the log once per second.
+     *
+     * @param durability log durability mode
+     */
+    public void setDurability(Durability durability) {
+        fileManager.setDurability(durability, 1000);
+    }
+
+    /**
+     * Sets when the change log is forced to disk.
+     *
+     * @param durability log durability mode
+     * @param intervalMillis interval between forced writes for {@link Durability#INTERVAL}, in milliseconds
+     * @throws IllegalArgumentException if the interval is not positive
+     */
+    public void setDurability(Durability durability, long intervalMillis) {
+        fileManager.setDurability(durability, intervalMillis);
+    }
+
+    /**
+     * Blocks until all entry changes made before this call are written to disk.
+     * Returns immediately if the database was opened without asynchronous writes.
+     */
+    public void flush() {
+        if (writeBehind != null)
+            writeBehind.flush();
+    }
+
+    /**
+     * Writes out all pending entry changes, log records and indexes and closes the change log.
+     * The database should not be modified after it is closed.
+     */
+    @Override
+    public void close() {
+        if (writeBehind != null)
+            writeBehind.close();
+        for (DataIndex dataIndex : indexes.values())
+            fileManager.writeIndex(dataIndex.name, dataIndex.encode(fileManager.logSequence()));
+        fileManager.close();
+        changes.close();
+        if (jmx != null)
+            jmx.unregister();
+    }
+
+    /**
+     * Subscribes to the changes of the database. Changes are delivered on the common fork-join pool,
+     * and up to 1024 changes are buffered for the subscriber. See {@link #subscribe(ChangeSubscriber, Executor, int)}.
+     *
+     * @param subscriber subscriber receiving the changes
+     */
+    public void subscribe(ChangeSubscriber subscriber) {
+        subscribe(subscriber, ForkJoinPool.commonPool(), 1024);
+    }
+
+    /**
+     * Subscribes to the changes of the database made from now on. Every change is buffered for the subscriber
+     * until it is requested and delivered. If more than {@code bufferSize} changes are waiting, the subscription fails
+     * with {@link ChangeSubscriber#onError}, so a slow subscriber never blocks writers.
+     * The subscription is completed when the database is closed.
+     * This follows the {@code java.util.concurrent.Flow} contract, wrap the subscriber to bridge to a {@code Flow.Subscriber}.
+     *
+     * @param subscriber subscriber receiving the changes
+     * @param executor executor delivering the changes
+     * @param bufferSize maximal amount of changes waiting for the subscriber
+     * @throws IllegalArgumentException if the buffer size is not positive
+     */
+    public void subscribe(ChangeSubscriber subscriber, Executor executor, int bufferSize) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("Buffer size must be positive");
+        changes.subscribe(subscriber, executor, bufferSize);
+    }
+
+    /**
+     * Creates an index over the data lines of all entries, each line being its own key.
+     * See {@link #createIndex(String, IndexType, Function, String)}.
+     *
+     * @param indexName index name
+     * @param type index type
+     * @return Created index, {@code null} if an index with the same name already exists
+     * @throws IllegalArgumentException if index name is empty
+     */
+    public DataIndex createIndex(String indexName, IndexType type) {
+        return createIndex(indexName, type, null, null);
+    }
+
+    /**
+     * Creates an index over the data lines of all entries, keyed by the given key function.
+     * The index is rebuilt on every connect, as the key function may have changed.
+     * See {@link #createIndex(String, IndexType, Function, String)} to reuse the saved index.
+     *
+     * @param indexName index name
+     * @param type index type
+     * @param keyFunction function mapping a data line to its key
+     * @return Created index, {@code null} if an index with the same name already exists
+     * @throws IllegalArgumentException if index name is empty
+     */
+    public DataIndex createIndex(String indexName, IndexType type, Function<String, String> keyFunction) {
+        return createIndex(indexName, type, keyFunction, null);
+    }
+
+    /**
+     * Creates an index over the data lines of all entries, keyed by the given key function.
+     * Lines the function maps to {@code null} are not indexed. The index is kept up to date on every change
+     * and saved in {@code .sddata\indexes} when the database is closed. Indexes are not remembered by the database,
+     * declare them again with the same name, type and key version after connecting to reuse the saved index.
+     * Change the key version whenever the key function changes. The saved index is used only if it was saved
+     * with the same key version and the database did not change since, otherwise the index is rebuilt.
+     *
+     * @param indexName index name
+     * @param type index type
+     * @param keyFunction function mapping a data line to its key, {@code null} to index every line as its own key
+     * @param keyVersion version of the key function, {@code null} to always rebuild an index with a key function
+     * @return Created index, {@code null} if an index with the same name already exists
+     * @throws IllegalArgumentException if index name is empty
+     */
+    public synchronized DataIndex createIndex(String indexName, IndexType type, Function<String, String> keyFunction,
+                                              String keyVersion) {
+        indexName = indexName.trim();
+        if (indexName.equals(""))
+            throw new IllegalArgumentException("Empty name");
+        if (indexes.containsKey(indexName)) {
+            diagnostics.report(ErrorCode.INDEX_EXISTS, null, "Index \"" + indexName + "\" already exists");
+            return null;
+        }
+        DataIndex dataIndex = new DataIndex(indexName, type, keyFunction, keyVersion);
+        Map<String, Map<String, Integer>> saved = null;
+        byte[] bytes = fileManager.readIndex(indexName);
+        if (bytes != null) {
+            // Saved with the log sequence number at close. A crash after this connect leaves the file behind,
+            // but any change logged since makes it older than the log, and it is rebuilt on the next connect.
+            try {
+                saved = DataIndex.decode(bytes, type, keyFunction != null, keyVersion, fileManager.openSequence);
+            } catch (IOException e) {
+                diagnostics.report(ErrorCode.IO_ERROR, null, "Index read error", e);
+            }
+        }
+        indexes.put(indexName, dataIndex);
+        for (Entry entry : entries.values()) {
+            synchronized (entry) {
+                // Every change is logged under the entry lock (or queued for writing), so an unchanged
+                // log sequence number means the saved keys of this entry are still valid
+                boolean unchanged = fileManager.logSequence() == fileManager.openSequence
+                        && (writeBehind == null || !writeBehind.isPending(entry));
+                if (saved != null && unchanged)
+                    dataIndex.load(entry, saved.get(entry.name));
+                else
+                    dataIndex.set(entry, entry.getData());
+            }
+        }
+        return dataIndex;
+    }
+
+    /**
+     * Returns index, found by name. Returns {@code null} if index is not found.
+     *
+     * @param indexName index name to be found
+     * @return Index if found, {@code null} if index is not found
+     */
+    public DataIndex getIndex(String indexName) {
+        indexName = indexName.trim();
+        DataIndex dataIndex = indexes.get(indexName);
+        if (dataIndex == null)
+            diagnostics.report(ErrorCode.INDEX_NOT_FOUND, null, "Index \"" + indexName + "\" not found");
+        return dataIndex;
+    }
+
+    /**
+     * Removes the index and its saved file. Returns {@code true} if removed successfully, {@code false} if index is not found.
+     *
+     * @param indexName index name
+     * @return {@code true} if removed successfully, {@code false} if index is not found
+     */
+    public synchronized boolean dropIndex(String indexName) {
+        indexName = indexName.trim();
+        if (indexes.remove(indexName) == null) {
+            diagnostics.report(ErrorCode.INDEX_NOT_FOUND, null, "Index \"" + indexName + "\" not found");
+            return false;
+        }
+        fileManager.deleteIndex(indexName);
+        return true;
+    }
+
+    /**
+     * Returns the current counters of the entry data cache.
+     * All counters are zero if the database was opened without a cache budget.
+     *
+     * @return Cache statistics
+     */
+    public CacheStats getCacheStats() {
+        if (cache == null)
+            return new CacheStats(0, 0, 0, 0, 0);
+        return cache.stats();
+    }
+
+    /**
+     * Returns the current metrics of the database: operation latencies, lock waits, written and read bytes
+     * and the amount of entries and data lines. Latencies are only measured if enabled with
+     * {@link DatabaseOptions#setMetrics(boolean)}, otherwise they are empty.
+     *
+     * @return Database metrics
+     */
+    public DatabaseMetrics getMetrics() {
+        long lines = 0;
+        for (Entry entry : index.values())
+            lines += Math.max(0, entry.residentCount());
+        return new DatabaseMetrics(metrics.operationStats(), metrics.lockWaitStats(),
+                metrics.bytesWritten.sum(), metrics.bytesRead.sum(), index.size(), lines);
+    }
+
+    /**
+     * Returns a read-only snapshot of the entries and their data at this point in time.
+     * Taking a snapshot only copies the list of entries, and reading through it never blocks writers.
+     * Data replaced after the snapshot is kept in memory until the snapshot is closed.
+     *
+     * @return Snapshot of the database
+     */
+    public Snapshot snapshot() {
+        Map<String, Entry> snapshot = new LinkedHashMap<>();
+        long version;
+        // Structural changes hold the database lock, data changes only take a new version
+        synchronized (this) {
+            version = clock.open();
+            for (Entry entry : entries.values())
+                snapshot.put(entry.name, entry);
+        }
+        return new Snapshot(clock, version, snapshot);
+    }
+
     /**
      * Returns the array of all the entry names.
      *
      * @return Array of the entry names.
      */
-    public synchronized String[] getEntryNames() {
+    public String[] getEntryNames() {
         List<String> names = new ArrayList<>();
-        for (Entry entry : entries)
+        for (Entry entry : entries.values())
             names.add(entry.name);
         return names.toArray(new String[]{});
     }
@@ -122,7 +423,7 @@ public class Database extends EntryListener implements Iterable<Entry> {
      * @return Amount of entries.
      */
     public int size() {
-        return entries.size();
+        return index.size();
     }
 
     /**
@@ -131,27 +432,35 @@ public class Database extends EntryListener implements Iterable<Entry> {
      * @param entryName entry name
      * @return {@code true} if entry is found, {@code false} if entry is not found
      */
-    public synchronized boolean contains(String entryName) {
-        for (Entry entry : entries) {
-            if (entry.name.equals(entryName.trim()))
-                return true;
-        }
-        return false;
+    public boolean contains(String entryName) {
+        return index.containsKey(entryName.trim());
     }
 
     /**
      * Returns entry, found by name. Returns {@code null} if entry is not found.
+     * A missing entry is not reported as an error.
      * @param entryName entry name to be found
      * @return Entry if found, {@code null} if entry is not found
      */
-    public synchronized Entry get(String entryName) {
-        entryName = entryName.trim();
-        for (Entry entry : entries) {
-            if (entry.name.equals(entryName))
-                return entry;
-        }
-        System.err.println("Entry name \"" + entryName + "\" not found");
-        return null;
+    public Entry get(String entryName) {
+        long start = metrics.start();
+        Entry entry = index.get(entryName.trim());
+        metrics.record(OperationType.GET, start);
+        return entry;
+    }
+
+    /**
+     * Returns entry, found by name.
+     *
+     * @param entryName entry name to be found
+     * @return Entry
+     * @throws DatabaseException with {@link ErrorCode#ENTRY_NOT_FOUND} if entry is not found
+     */
+    public Entry require(String entryName) {
+        Entry entry = get(entryName);
+        if (entry == null)
+            throw new DatabaseException(ErrorCode.ENTRY_NOT_FOUND, entryName.trim(), "Entry \"" + entryName.trim() + "\" not found");
+        return entry;
     }
 
     /**
@@ -159,17 +468,37 @@ public class Database extends EntryListener implements Iterable<Entry> {
      * @param entry Entry to be added
      * @return {@code true} if added successfully, {@code false} if entry with the same name already exists
      */
-    public synchronized boolean add(Entry entry) {
+    public boolean add(Entry entry) {
+        long start = metrics.start();
+        boolean added = add(entry, start);
+        metrics.record(OperationType.ADD, start);
+        return added;
+    }
+
+    private synchronized boolean add(Entry entry, long start) {
+        metrics.locked(start);
         if (contains(entry.name)) {
-            System.err.println("Entry \"" + entry.name + "\" already exists");
+            diagnostics.report(ErrorCode.ENTRY_EXISTS, entry.name, "Entry \"" + entry.name + "\" already exists");
             return false;
         }
-        entries.add(entry);
-        fileManager.make(entry.name);
-        fileManager.writeData(entry.name, entry.getData());
-        for (String filepath : entry.getFiles())
-            fileManager.copyFile(entry, filepath);
-        entry.addListener(this);
+        synchronized (entry) {
+            put(entry);
+            entry.setLayout(layout);
+            fileManager.make(entry.name);
+            if (entry.dataCount() > 0) {
+                String[] data = entry.getData();
+                fileManager.writeData(entry.name, data);
+                for (DataIndex dataIndex : indexes.values())
+                    dataIndex.set(entry, data);
+            }
+            for (String filepath : entry.getFiles())
+                fileManager.copyFile(entry, filepath);
+            if (cache != null)
+                entry.attach(cache);
+            entry.addListener(this);
+            if (changes.isActive())
+                changes.publish(ChangeEvent.Type.ENTRY_ADDED, entry.name, null, -1, Arrays.asList(entry.getData()), Arrays.asList(entry.getFiles()));
+        }
         return true;
     }
 
@@ -190,8 +519,10 @@ public class Database extends EntryListener implements Iterable<Entry> {
      * @param entries Array of entries
      */
     public void add(Entry... entries) {
+        WriteBatch batch = batch();
         for (Entry entry : entries)
-            add(entry);
+            batch.add(entry);
+        batch.commit();
     }
 
     /**
@@ -200,8 +531,139 @@ public class Database extends EntryListener implements Iterable<Entry> {
      * @param entries Collection of entries
      */
     public void add(Collection<Entry> entries) {
+        WriteBatch batch = batch();
         for (Entry entry : entries)
-            add(entry);
+            batch.add(entry);
+        batch.commit();
+    }
+
+    /**
+     * Creates a new empty batch of operations for this database.
+     *
+     * @return Write batch
+     */
+    public WriteBatch batch() {
+        return new WriteBatch(this);
+    }
+
+    int commit(WriteBatch batch) {
+        return commit(batch, metrics.start());
+    }
+
+    private synchronized int commit(WriteBatch batch, long start) {
+        metrics.locked(start);
+        int applied = 0;
+        List<WriteBatch.Operation> operations = batch.operations;
+        for (int from = 0; from < operations.size(); from += BATCH_GROUP) {
+            List<WriteBatch.Operation> group = operations.subList(from, Math.min(from + BATCH_GROUP, operations.size()));
+            Set<Entry> entries = Collections.newSetFromMap(new IdentityHashMap<>());
+            plan(group, entries, null);
+            applied += commit(group, new ArrayList<>(entries), 0);
+        }
+        return applied;
+    }
+
+    /**
+     * Applies a group of batch operations holding the monitors of the entries they change, from the given one on.
+     * The log records of the group are written ahead together, see {@link FileManager#beginBatch}. The entries are
+     * locked before, so no other change of them logs in between and every change of them waits for the group.
+     */
+    private int commit(List<WriteBatch.Operation> operations, List<Entry> entries, int locked) {
+        if (locked < entries.size()) {
+            synchronized (entries.get(locked)) {
+                return commit(operations, entries, locked + 1);
+            }
+        }
+        List<LogRecord> records = new ArrayList<>();
+        plan(operations, null, records);
+        int applied = 0;
+        try {
+            if (!fileManager.beginBatch(records))
+                return 0;
+            for (WriteBatch.Operation operation : operations) {
+                boolean success;
+                switch (operation.type) {
+                    case ADD:
+                        success = add(operation.entry);
+                        break;
+                    case DELETE:
+                        success = delete(operation.name);
+                        break;
+                    case RENAME:
+                        success = rename(operation.name, operation.newName);
+                        break;
+                    default:
+                        Entry entry = get(operation.name);
+                        success = entry != null;
+                        if (success)
+                            entry.uploadData(operation.data);
+                        else
+                            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, operation.name, "Entry \"" + operation.name + "\" not found");
+                        break;
+                }
+                if (success)
+                    applied++;
+            }
+        } finally {
+            fileManager.endBatch();
+        }
+        return applied;
+    }
+
+    /**
+     * Follows the batch operations as they will be applied, without applying them, and collects the entries
+     * they change and the log records they write, the same the single operations write. Either may be {@code null}.
+     */
+    private void plan(List<WriteBatch.Operation> operations, Set<Entry> entries, List<LogRecord> records) {
+        // Names the operations add or remove, removed names map to null
+        Map<String, Entry> names = new HashMap<>();
+        // Data line counts of the entries after the uploads so far
+        Map<Entry, Integer> counts = new IdentityHashMap<>();
+        for (WriteBatch.Operation operation : operations) {
+            Entry entry = names.containsKey(operation.name) ? names.get(operation.name) : index.get(operation.name);
+            switch (operation.type) {
+                case ADD:
+                    if (entry != null)
+                        continue;
+                    entry = operation.entry;
+                    names.put(operation.name, entry);
+                    if (records != null) {
+                        records.add(LogRecord.make(operation.name));
+                        if (entry.dataCount() > 0)
+                            records.add(LogRecord.write(operation.name, Arrays.asList(entry.getData())));
+                    }
+                    break;
+                case DELETE:
+                    if (entry == null)
+                        continue;
+                    names.put(operation.name, null);
+                    if (records != null)
+                        records.add(LogRecord.delete(operation.name));
+                    break;
+                case RENAME:
+                    Entry existing = names.containsKey(operation.newName) ? names.get(operation.newName) : index.get(operation.newName);
+                    if (entry == null || existing != null)
+                        continue;
+                    names.put(operation.name, null);
+                    names.put(operation.newName, entry);
+                    if (records != null)
+                        records.add(LogRecord.rename(operation.name, operation.newName));
+                    break;
+                default:
+                    // Uploads written behind are logged by the write-behind thread
+                    if (entry == null)
+                        continue;
+                    if (records != null && writeBehind == null) {
+                        Integer count = counts.get(entry);
+                        int from = count != null ? count : entry.dataCount();
+                        records.add(LogRecord.append(operation.name, from, operation.data));
+                        counts.put(entry, from + operation.data.size());
+                    }
+                    break;
+            }
+            if (entries != null)
+                entries.add(entry);
+        }
     }
 
     /**
@@ -210,17 +672,33 @@ public class Database extends EntryListener implements Iterable<Entry> {
      * @param entryName Entry name to be found
      * @return {@code true} if deleted successfully, {@code false} if entry is not found
      */
-    public synchronized boolean delete(String entryName) {
+    public boolean delete(String entryName) {
+        long start = metrics.start();
+        boolean deleted = delete(entryName, start);
+        metrics.record(OperationType.DELETE, start);
+        return deleted;
+    }
+
+    private synchronized boolean delete(String entryName, long start) {
+        metrics.locked(start);
         entryName = entryName.trim();
-        for (Entry entry : entries) {
-            if (entry.name.equals(entryName)) {
-                entries.remove(entry);
-                fileManager.delete(entryName);
-                return true;
-            }
+        Entry entry = index.remove(entryName);
+        if (entry == null) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Entry \"" + entryName + "\" not found");
+            return false;
         }
-        System.err.println("Entry \"" + entryName + "\" not found");
-        return false;
+        entries.remove(entry.position);
+        synchronized (entry) {
+            entry.retire();
+            entry.detach();
+            for (DataIndex dataIndex : indexes.values())
+                dataIndex.remove(entry);
+            if (writeBehind != null)
+                writeBehind.discard(entry);
+            fileManager.delete(entryName);
+            changes.publish(ChangeEvent.Type.DELETED, entryName, null, -1, null, null);
+        }
+        return true;
     }
 
     /**
@@ -231,54 +709,194 @@ public class Database extends EntryListener implements Iterable<Entry> {
      * @return {@code true} if renamed successfully, {@code false} if could not find the entry or entry with {@code newName} name already exists
      * @throws IllegalArgumentException if the new name is empty
      */
-    public synchronized boolean rename(String entryName, String newName) {
+    public boolean rename(String entryName, String newName) {
+        long start = metrics.start();
+        boolean renamed = rename(entryName, newName, start);
+        metrics.record(OperationType.RENAME, start);
+        return renamed;
+    }
+
+    private synchronized boolean rename(String entryName, String newName, long start) {
+        metrics.locked(start);
         entryName = entryName.trim();
         newName = newName.trim();
-        Entry entry = get(entryName);
-        if (entry == null || contains(newName)) {
-            System.err.println();
+        // Checked before anything is logged, the entry only checks its name once the storage is renamed
+        if (newName.equals(""))
+            throw new IllegalArgumentException("Empty name");
+        Entry entry = index.get(entryName);
+        if (entry == null) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Entry \"" + entryName + "\" not found");
+            return false;
+        }
+        if (contains(newName)) {
+            diagnostics.report(ErrorCode.ENTRY_EXISTS, newName, "Entry \"" + newName + "\" already exists");
             return false;
         }
-        entry.setName(newName);
-        fileManager.rename(entryName, newName);
+        synchronized (entry) {
+            if (!fileManager.rename(entry, newName))
+                return false;
+            changes.publish(ChangeEvent.Type.RENAMED, entryName, newName, -1, null, null);
+        }
+        index.put(newName, entry);
+        index.remove(entryName);
         return true;
     }
 
+    private void put(Entry entry) {
+        entry.position = sequence++;
+        entry.fileManager = fileManager;
+        entry.clock = clock;
+        index.put(entry.name, entry);
+        entries.put(entry.position, entry);
+    }
+
     @Override
     public DatabaseIterator iterator() {
         return new DatabaseIterator(this);
     }
 
+    /**
+     * Returns a spliterator over a snapshot of the entries, in database order.
+     * Entries added or deleted after the call are not reflected. The spliterator splits evenly,
+     * so parallel streams spread the entries over all workers.
+     *
+     * @return Spliterator of the entries
+     */
+    @Override
+    public Spliterator<Entry> spliterator() {
+        return Spliterators.spliterator(entryArray(), Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /**
+     * Returns a sequential stream over a snapshot of the entries, in database order.
+     *
+     * @return Stream of the entries
+     */
+    public Stream<Entry> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream over a snapshot of the entries.
+     *
+     * @return Parallel stream of the entries
+     */
+    public Stream<Entry> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    // Structural changes hold the database lock, so the copy is consistent
+    private synchronized Entry[] entryArray() {
+        return entries.values().toArray(new Entry[]{});
+    }
+
 //    @Override
 //    void entryNameChanged(Entry entry) {
 //
 //    }
 
+    // Structural changes (add, delete, rename, commit) are synchronized on the database.
+    // Data and file changes are only synchronized on the changed entry, see Entry.
     @Override
-    synchronized void entryDataChanged(Entry entry) {
-        fileManager.writeData(entry.name, entry.getData());
+    void entryDataChanged(Entry entry) {
+        reindex(entry);
+        if (writeBehind != null)
+            writeBehind.dataChanged(entry);
+        else
+            writeData(entry);
     }
 
     @Override
-    synchronized void entryFilesChanged(Entry entry) {
-        List<String> removeArray = new ArrayList<>();
-        for (String remoteFile : entry.remoteFiles) {
-            if (fileManager.copyFile(entry, remoteFile))
-                removeArray.add(remoteFile);
-        }
-        for (String file : removeArray)
-            entry.remoteFiles.remove(file);
-        String[] entryFiles = fileManager.readFiles(entry);
-        for (String file : entryFiles) {
-            if (!entry.localFiles.contains(file))
-                fileManager.deleteFile(entry.name, file);
+    void entryDataAppended(Entry entry, List<String> data) {
+        for (DataIndex dataIndex : indexes.values())
+            dataIndex.add(entry, data);
+        int from = entry.dataCount() - data.size();
+        if (writeBehind != null)
+            writeBehind.dataAppended(entry, data);
+        else
+            fileManager.appendData(entry.name, from, data);
+        changes.publish(ChangeEvent.Type.DATA_APPENDED, entry.name, null, from, data, null);
+    }
+
+    @Override
+    void entryDataRemoved(Entry entry, int index, String line) {
+        for (DataIndex dataIndex : indexes.values())
+            dataIndex.removeLine(entry, line);
+        // Only the removed line is marked in the storage, instead of rewriting the data
+        if (writeBehind != null)
+            writeBehind.dataChanged(entry);
+        else
+            fileManager.removeData(entry.name, index, line, entry.dataCount());
+        changes.publish(ChangeEvent.Type.DATA_REMOVED, entry.name, null, index, null, null);
+    }
+
+    @Override
+    void entryDataCleared(Entry entry) {
+        entryDataChanged(entry);
+        changes.publish(ChangeEvent.Type.DATA_CLEARED, entry.name, null, -1, null, null);
+    }
+
+    @Override
+    void entryFilesChanged(Entry entry) {
+        if (writeBehind != null)
+            writeBehind.filesChanged(entry);
+        else
+            writeFiles(entry);
+    }
+
+    @Override
+    void entryFilesAdded(Entry entry, List<String> paths) {
+        entryFilesChanged(entry);
+        changes.publish(ChangeEvent.Type.FILES_ADDED, entry.name, null, -1, null, paths);
+    }
+
+    @Override
+    void entryFileRemoved(Entry entry, int index, String file) {
+        entryFilesChanged(entry);
+        changes.publish(ChangeEvent.Type.FILE_REMOVED, entry.name, null, index, null, Collections.singletonList(file));
+    }
+
+    @Override
+    void entryFilesCleared(Entry entry) {
+        entryFilesChanged(entry);
+        changes.publish(ChangeEvent.Type.FILES_CLEARED, entry.name, null, -1, null, null);
+    }
+
+    // The view is built from the stored data, so pending changes of the entry are written first
+    @Override
+    void entryDataViewed(Entry entry) {
+        if (writeBehind != null)
+            writeBehind.write(entry);
+    }
+
+    private void reindex(Entry entry) {
+        if (!indexes.isEmpty()) {
+            String[] data = entry.getData();
+            for (DataIndex dataIndex : indexes.values())
+                dataIndex.set(entry, data);
         }
     }
 
+    void writeData(Entry entry) {
+        fileManager.writeData(entry.name, entry.getData());
+    }
+
+    /**
+     * Applies the pending file changes of the entry: deletes removed files, then copies uploaded ones.
+     * Called with the entry monitor held.
+     */
+    void writeFiles(Entry entry) {
+        for (String file : entry.removedFiles)
+            fileManager.deleteFile(entry.name, file);
+        entry.removedFiles.clear();
+        for (String remoteFile : entry.remoteFiles)
+            fileManager.copyFile(entry, remoteFile);
+    }
+
     @Override
     public String toString() {
         StringBuilder str = new StringBuilder();
-        for (Entry entry : entries)
+        for (Entry entry : entries.values())
             str.append(System.lineSeparator()).append(entry);
         return str.toString();
     }
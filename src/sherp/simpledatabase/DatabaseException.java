@@ -0,0 +1,59 @@
+package sherp.simpledatabase;
+
+/**
+ * Error of a database operation. Operations that fail report the error to the {@link ErrorHandler}
+ * of the database and return {@code null}, {@code false} or {@code -1}. Only a few operations,
+ * such as {@link Database#require(String)} and connecting, throw it.
+ */
+public class DatabaseException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final ErrorCode code;
+    private final String entryName;
+    long suppressed;
+
+    DatabaseException(ErrorCode code, String entryName, String message) {
+        this(code, entryName, message, null);
+    }
+
+    DatabaseException(ErrorCode code, String entryName, String message, Throwable cause) {
+        super(message, cause);
+        this.code = code;
+        this.entryName = entryName;
+    }
+
+    // Reported errors skip filling in the stack trace, which only shows the reporting code
+    DatabaseException(ErrorCode code, String entryName, String message, Throwable cause, boolean stackTrace) {
+        super(message, cause, true, stackTrace);
+        this.code = code;
+        this.entryName = entryName;
+    }
+
+    /**
+     * Returns the kind of the error.
+     *
+     * @return Error code
+     */
+    public ErrorCode getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the name of the entry the error is about.
+     *
+     * @return Entry name, {@code null} if the error is not about a single entry
+     */
+    public String getEntryName() {
+        return entryName;
+    }
+
+    /**
+     * Returns the amount of errors dropped right before this one, because more errors were reported
+     * than the rate limit allows or the handler could keep up with.
+     *
+     * @return Amount of suppressed errors
+     */
+    public long getSuppressedCount() {
+        return suppressed;
+    }
+}
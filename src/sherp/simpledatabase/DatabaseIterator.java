@@ -1,25 +1,22 @@
 package sherp.simpledatabase;
 
 import java.util.Iterator;
-import java.util.List;
 
 class DatabaseIterator implements Iterator<Entry> {
-    private final List<Entry> entries;
-    private int iterator;
+    private final Iterator<Entry> iterator;
 
     DatabaseIterator(Database database) {
-        entries = database.entries;
-        iterator = 0;
+        iterator = database.entries.values().iterator();
     }
 
     @Override
     public boolean hasNext() {
-        return iterator < entries.size();
+        return iterator.hasNext();
     }
 
     @Override
     public Entry next() {
-        return entries.get(iterator++);
+        return iterator.next();
     }
 
     @Override
@@ -0,0 +1,86 @@
+package sherp.simpledatabase;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes the metrics of a database through JMX.
+ */
+class DatabaseJmx implements DatabaseMXBean {
+    private final Database database;
+    private ObjectName objectName;
+
+    DatabaseJmx(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Registers the bean with the platform MBean server. Returns {@code false} on error.
+     */
+    boolean register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            objectName = new ObjectName("sherp.simpledatabase:type=Database,name=" + ObjectName.quote(database.name) +
+                    ",location=" + ObjectName.quote(database.location));
+            server.registerMBean(this, objectName);
+            return true;
+        } catch (JMException e) {
+            database.diagnostics.report(ErrorCode.INTERNAL_ERROR, null, "Database " + database.name + " could not be registered with JMX", e);
+            objectName = null;
+            return false;
+        }
+    }
+
+    void unregister() {
+        if (objectName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            database.diagnostics.report(ErrorCode.INTERNAL_ERROR, null, "Database " + database.name + " could not be unregistered from JMX", e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String getName() {
+        return database.name;
+    }
+
+    @Override
+    public int getEntryCount() {
+        return database.size();
+    }
+
+    @Override
+    public long getLineCount() {
+        return database.getMetrics().getLineCount();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return database.fileManager.metrics.bytesWritten.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return database.fileManager.metrics.bytesRead.sum();
+    }
+
+    @Override
+    public OperationStats getLockWait() {
+        return database.fileManager.metrics.lockWaitStats();
+    }
+
+    @Override
+    public Map<String, OperationStats> getOperations() {
+        Map<String, OperationStats> operations = new LinkedHashMap<>();
+        for (Map.Entry<OperationType, OperationStats> operation : database.fileManager.metrics.operationStats().entrySet())
+            operations.put(operation.getKey().name(), operation.getValue());
+        return operations;
+    }
+}
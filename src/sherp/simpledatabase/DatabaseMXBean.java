@@ -0,0 +1,59 @@
+package sherp.simpledatabase;
+
+import java.util.Map;
+
+/**
+ * Management interface of a database, registered with the platform MBean server
+ * under {@code sherp.simpledatabase:type=Database} when enabled with {@link DatabaseOptions#setJmx(boolean)}.
+ * See {@link DatabaseMetrics} for the meaning of the attributes.
+ */
+public interface DatabaseMXBean {
+    /**
+     * Returns the database name.
+     *
+     * @return Database name
+     */
+    String getName();
+
+    /**
+     * Returns the amount of entries.
+     *
+     * @return Amount of entries
+     */
+    int getEntryCount();
+
+    /**
+     * Returns the amount of data lines held in memory.
+     *
+     * @return Amount of data lines
+     */
+    long getLineCount();
+
+    /**
+     * Returns the amount of written bytes.
+     *
+     * @return Written bytes
+     */
+    long getBytesWritten();
+
+    /**
+     * Returns the amount of read bytes.
+     *
+     * @return Read bytes
+     */
+    long getBytesRead();
+
+    /**
+     * Returns the times structural changes waited for the database lock.
+     *
+     * @return Lock wait times
+     */
+    OperationStats getLockWait();
+
+    /**
+     * Returns the latencies of all operation types by operation name.
+     *
+     * @return Latencies by operation name
+     */
+    Map<String, OperationStats> getOperations();
+}
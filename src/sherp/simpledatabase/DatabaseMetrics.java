@@ -0,0 +1,101 @@
+package sherp.simpledatabase;
+
+import java.util.Map;
+
+/**
+ * Snapshot of the database metrics. Operation latencies are only measured when metrics are enabled,
+ * see {@link DatabaseOptions#setMetrics(boolean)}.
+ */
+public class DatabaseMetrics {
+    private final Map<OperationType, OperationStats> operations;
+    private final OperationStats lockWait;
+    private final long bytesWritten;
+    private final long bytesRead;
+    private final int entryCount;
+    private final long lineCount;
+
+    DatabaseMetrics(Map<OperationType, OperationStats> operations, OperationStats lockWait,
+                    long bytesWritten, long bytesRead, int entryCount, long lineCount) {
+        this.operations = operations;
+        this.lockWait = lockWait;
+        this.bytesWritten = bytesWritten;
+        this.bytesRead = bytesRead;
+        this.entryCount = entryCount;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * Returns the latencies of an operation type.
+     *
+     * @param operation type of the operation
+     * @return Latencies of the operation
+     */
+    public OperationStats getOperation(OperationType operation) {
+        return operations.get(operation);
+    }
+
+    /**
+     * Returns the latencies of all operation types.
+     *
+     * @return Unmodifiable map of the latencies by operation type
+     */
+    public Map<OperationType, OperationStats> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Returns the times adds, deletes, renames and batches waited for the database lock.
+     *
+     * @return Lock wait times
+     */
+    public OperationStats getLockWait() {
+        return lockWait;
+    }
+
+    /**
+     * Returns the amount of bytes written to entry data, entry files and the change log.
+     *
+     * @return Written bytes
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns the amount of bytes read from entry data and exported from entry files.
+     *
+     * @return Read bytes
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the amount of entries.
+     *
+     * @return Amount of entries
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the amount of data lines held in memory. Lines of lazily loaded entries are only counted while loaded.
+     *
+     * @return Amount of data lines
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        str.append("Entries: ").append(entryCount).append(", lines: ").append(lineCount)
+                .append(", written: ").append(bytesWritten).append("B, read: ").append(bytesRead).append("B");
+        for (Map.Entry<OperationType, OperationStats> operation : operations.entrySet())
+            str.append(System.lineSeparator()).append(operation.getKey()).append(": ").append(operation.getValue());
+        str.append(System.lineSeparator()).append("Lock wait: ").append(lockWait);
+        return str.toString();
+    }
+}
@@ -0,0 +1,245 @@
+package sherp.simpledatabase;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Optional settings used when creating or connecting to a database.
+ */
+public class DatabaseOptions {
+    boolean lazy;
+    long cacheBudget;
+    StorageType storageType;
+    boolean memoryMapped;
+    boolean compressedData;
+    boolean asyncWrites;
+    Executor loadExecutor;
+    DataLayout dataLayout;
+    boolean linkFiles;
+    boolean deduplicateFiles;
+    boolean metrics;
+    MetricsRegistry metricsRegistry;
+    boolean jmx;
+    ErrorHandler errorHandler;
+    int errorRateLimit;
+
+    /**
+     * Creates options with the default settings.
+     */
+    public DatabaseOptions() {
+        lazy = false;
+        cacheBudget = 0;
+        storageType = StorageType.DIRECTORY;
+        memoryMapped = false;
+        compressedData = false;
+        asyncWrites = false;
+        loadExecutor = ForkJoinPool.commonPool();
+        dataLayout = DataLayout.STRINGS;
+        linkFiles = false;
+        deduplicateFiles = false;
+        metrics = false;
+        metricsRegistry = null;
+        jmx = false;
+        errorHandler = null;
+        errorRateLimit = 100;
+    }
+
+    /**
+     * Sets whether entries are loaded on first access instead of on connect.
+     * Data of lazily loaded entries can be dropped from memory again when the JVM runs low on heap.
+     *
+     * @param lazy {@code true} to load entries on first access
+     * @return these options
+     */
+    public DatabaseOptions setLazy(boolean lazy) {
+        this.lazy = lazy;
+        return this;
+    }
+
+    /**
+     * Sets the memory budget of the entry data cache, in bytes. {@code 0} disables the cache.
+     * With a cache, entries are loaded on first access and the least recently used entry data
+     * is dropped from memory once the budget is exceeded. Evicted data is read again from disk when needed.
+     *
+     * @param bytes cache budget in bytes
+     * @return these options
+     * @throws IllegalArgumentException if the budget is negative
+     */
+    public DatabaseOptions setCacheBudget(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("Negative cache budget");
+        this.cacheBudget = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the storage layout of a newly created database. {@link StorageType#DIRECTORY} is the default.
+     * When connecting, the layout of the existing database is detected and this setting is ignored.
+     *
+     * @param storageType storage layout
+     * @return these options
+     */
+    public DatabaseOptions setStorageType(StorageType storageType) {
+        this.storageType = storageType;
+        return this;
+    }
+
+    /**
+     * Sets whether entry data files are read through memory mapping instead of a buffered reader.
+     * Only applies to the {@link StorageType#DIRECTORY} layout.
+     *
+     * @param memoryMapped {@code true} to memory-map entry data files when reading
+     * @return these options
+     */
+    public DatabaseOptions setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        return this;
+    }
+
+    /**
+     * Sets whether entry data files are written compressed, in blocks that can be read and appended on their own.
+     * Existing files keep their format until their data is next rewritten, so both formats can be mixed.
+     * Only applies to the {@link StorageType#DIRECTORY} layout.
+     *
+     * @param compressedData {@code true} to compress entry data files
+     * @return these options
+     */
+    public DatabaseOptions setCompressedData(boolean compressedData) {
+        this.compressedData = compressedData;
+        return this;
+    }
+
+    /**
+     * Sets whether entry changes are written to disk by a background thread.
+     * Changes then return without waiting for disk, and repeated changes to the same entry are written together.
+     * Use {@link Database#flush()} to wait until earlier changes are written.
+     *
+     * @param asyncWrites {@code true} to write entry changes in the background
+     * @return these options
+     */
+    public DatabaseOptions setAsyncWrites(boolean asyncWrites) {
+        this.asyncWrites = asyncWrites;
+        return this;
+    }
+
+    /**
+     * Sets the executor that reads entries in parallel when connecting. The common fork-join pool is the default.
+     * Any executor can be used, for example a fixed thread pool sized for the disk or, on newer JDKs, virtual threads.
+     * Lazily loaded entries are not read on connect and do not use the executor.
+     *
+     * @param executor executor running the entry reads
+     * @return these options
+     * @throws IllegalArgumentException if the executor is {@code null}
+     */
+    public DatabaseOptions setLoadExecutor(Executor executor) {
+        if (executor == null)
+            throw new IllegalArgumentException("Null executor");
+        this.loadExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Sets how entry data lines are kept in memory. {@link DataLayout#STRINGS} is the default.
+     * The compact layouts store the lines of an entry encoded in a single buffer, which saves
+     * memory for many short lines but decodes a line on every {@code String} access.
+     * Entries added to the database are converted to this layout.
+     *
+     * @param dataLayout in-memory data layout
+     * @return these options
+     */
+    public DatabaseOptions setDataLayout(DataLayout dataLayout) {
+        this.dataLayout = dataLayout;
+        return this;
+    }
+
+    /**
+     * Sets whether uploaded files are hard-linked into the database instead of copied.
+     * Files on another file system are still copied. A linked file shares its content with the original,
+     * so changes to the original file are visible in the database.
+     *
+     * @param linkFiles {@code true} to hard-link uploaded files when possible
+     * @return these options
+     */
+    public DatabaseOptions setLinkFiles(boolean linkFiles) {
+        this.linkFiles = linkFiles;
+        return this;
+    }
+
+    /**
+     * Sets whether uploaded files are stored once per distinct content. Files are stored in {@code .sddata/blobs}
+     * under the hash of their content and entries hold hard links to them, so attaching the same file
+     * to many entries uses the disk space of a single copy. Stored files no entry uses any more
+     * are removed in the background. Takes precedence over {@link #setLinkFiles(boolean)}.
+     * Files are copied as usual if the file system does not support hard links.
+     *
+     * @param deduplicateFiles {@code true} to store uploaded files by content
+     * @return these options
+     */
+    public DatabaseOptions setDeduplicateFiles(boolean deduplicateFiles) {
+        this.deduplicateFiles = deduplicateFiles;
+        return this;
+    }
+
+    /**
+     * Sets whether the latencies of database operations and waits for the database lock are measured,
+     * see {@link Database#getMetrics()}. Byte and entry counters are always kept.
+     *
+     * @param metrics {@code true} to measure operation latencies
+     * @return these options
+     */
+    public DatabaseOptions setMetrics(boolean metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Sets a registry that receives every measured operation, to forward measurements to an external metrics library.
+     * A registry enables measuring operation latencies.
+     *
+     * @param metricsRegistry registry, or {@code null} for none
+     * @return these options
+     */
+    public DatabaseOptions setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+        return this;
+    }
+
+    /**
+     * Sets whether the database metrics are exposed as a {@link DatabaseMXBean} through the platform MBean server
+     * while the database is open.
+     *
+     * @param jmx {@code true} to register the database with JMX
+     * @return these options
+     */
+    public DatabaseOptions setJmx(boolean jmx) {
+        this.jmx = jmx;
+        return this;
+    }
+
+    /**
+     * Sets the handler that receives the errors of the database, instead of printing them to {@code System.err}.
+     * The handler is called on a background thread.
+     *
+     * @param errorHandler error handler, or {@code null} to print errors
+     * @return these options
+     */
+    public DatabaseOptions setErrorHandler(ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+        return this;
+    }
+
+    /**
+     * Sets how many errors per second are passed to the error handler. Further errors are dropped
+     * and counted in {@link DatabaseException#getSuppressedCount()}.
+     *
+     * @param errorsPerSecond maximum amount of handled errors per second
+     * @return these options
+     * @throws IllegalArgumentException if the limit is not positive
+     */
+    public DatabaseOptions setErrorRateLimit(int errorsPerSecond) {
+        if (errorsPerSecond <= 0)
+            throw new IllegalArgumentException("Non-positive error rate limit");
+        this.errorRateLimit = errorsPerSecond;
+        return this;
+    }
+}
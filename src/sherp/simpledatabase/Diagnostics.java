@@ -0,0 +1,88 @@
+package sherp.simpledatabase;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands reported errors to the error handler on a background thread, so threads hitting an error
+ * never wait for console or other output, and possibly while holding locks.
+ * At most the configured amount of errors per second is queued and at most 1024 errors wait,
+ * further errors are dropped and counted in {@link DatabaseException#getSuppressedCount()} of the next handled error.
+ * The thread only runs while errors are waiting.
+ */
+class Diagnostics implements Runnable {
+    private static final int QUEUE_SIZE = 1024;
+    private static final long WINDOW = 1_000_000_000L;
+
+    // Errors of entries that are not in a database
+    static final Diagnostics DEFAULT = new Diagnostics(null, 100);
+
+    private final ErrorHandler handler;
+    private final int limit;
+    private final BlockingQueue<DatabaseException> queue;
+    private final AtomicBoolean running;
+    private final AtomicLong suppressed;
+    private long windowStart;
+    private int inWindow;
+
+    Diagnostics(ErrorHandler handler, int limit) {
+        this.handler = handler != null ? handler : Diagnostics::print;
+        this.limit = limit;
+        queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        running = new AtomicBoolean();
+        suppressed = new AtomicLong();
+        windowStart = System.nanoTime();
+    }
+
+    void report(ErrorCode code, String entryName, String message) {
+        report(code, entryName, message, null);
+    }
+
+    void report(ErrorCode code, String entryName, String message, Throwable cause) {
+        if (!admit() || !queue.offer(new DatabaseException(code, entryName, message, cause, false))) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        if (running.compareAndSet(false, true)) {
+            Thread thread = new Thread(this, "SimpleDatabase diagnostics");
+            thread.start();
+        }
+    }
+
+    private synchronized boolean admit() {
+        long now = System.nanoTime();
+        if (now - windowStart >= WINDOW) {
+            windowStart = now;
+            inWindow = 0;
+        }
+        return ++inWindow <= limit;
+    }
+
+    @Override
+    public void run() {
+        do {
+            DatabaseException error;
+            while ((error = queue.poll()) != null) {
+                error.suppressed = suppressed.getAndSet(0);
+                try {
+                    handler.handle(error);
+                } catch (RuntimeException e) {
+                    print(new DatabaseException(ErrorCode.INTERNAL_ERROR, null, "Error handler failed", e, false));
+                }
+            }
+            running.set(false);
+            // An error queued after the last poll but before running was cleared would be left behind otherwise
+        } while (!queue.isEmpty() && running.compareAndSet(false, true));
+    }
+
+    private static void print(DatabaseException error) {
+        String message = error.getMessage();
+        if (error.suppressed > 0)
+            message += " (" + error.suppressed + " earlier errors suppressed)";
+        System.err.println(message);
+        if (error.getCause() != null)
+            error.getCause().printStackTrace();
+    }
+}
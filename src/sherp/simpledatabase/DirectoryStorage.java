@@ -0,0 +1,654 @@
+package sherp.simpledatabase;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class DirectoryStorage extends Storage {
+    private final String currentPath;
+    private final boolean mapped;
+    private final boolean compressed;
+    // Block indexes of compressed data files, built on first use
+    private final Map<String, BlockFile.Index> indexes = new ConcurrentHashMap<>();
+    // Line indexes of plain data files, read on first use
+    private final Map<String, LineIndex> lineIndexes = new ConcurrentHashMap<>();
+    // Whether the data file of an entry is compressed ([entry].z.dat) or plain ([entry].dat), found on first use
+    private final Map<String, Boolean> formats = new ConcurrentHashMap<>();
+
+    DirectoryStorage(String currentPath, boolean mapped, boolean compressed) {
+        this.currentPath = currentPath;
+        this.mapped = mapped;
+        this.compressed = compressed;
+    }
+
+    @Override
+    String[] names() {
+        List<String> entries = new ArrayList<>();
+
+        File rootFolder = new File(currentPath);
+        for (String entry : rootFolder.list()) {
+            if (new File(currentPath + entry).isDirectory() &&
+                    !entry.startsWith("."))
+                entries.add(entry);
+        }
+
+        return entries.toArray(new String[]{});
+    }
+
+    @Override
+    boolean exists(String entryName) {
+        return new File(dataPath(entryName)).exists();
+    }
+
+    @Override
+    String[] readData(String entryName) {
+        String filepath = dataPath(entryName);
+        if (!new File(filepath).exists()) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Dir/File " + entryName + " not found");
+            return null;
+        }
+        if (isCompressed(entryName))
+            return readBlocks(entryName, 0, Integer.MAX_VALUE);
+        LineIndex index;
+        try {
+            index = lineIndex(entryName);
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Index error", e);
+            return null;
+        }
+        int[] removed = index == null ? new int[0] : index.removed;
+        if (mapped && removed.length == 0) {
+            DataView view = viewData(entryName);
+            if (view == null)
+                return null;
+            String[] lines = new String[view.size()];
+            for (int i = 0; i < lines.length; i++)
+                lines[i] = view.getString(i);
+            return lines;
+        }
+
+        List<String> lines;
+        try (FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ)) {
+            lines = readLines(channel, removed);
+            metrics.bytesRead.add(channel.size());
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Write error", e);
+            return null;
+        }
+        return lines.toArray(new String[]{});
+    }
+
+    @Override
+    String[] readData(String entryName, int from, int to) {
+        if (!exists(entryName))
+            return super.readData(entryName, from, to);
+        if (isCompressed(entryName))
+            return readBlocks(entryName, from, to);
+        String filepath = currentPath + entryName + File.separator + entryName + ".dat";
+        String indexPath = currentPath + entryName + File.separator + entryName + ".lines.dat";
+        try {
+            LineIndex index = indexLines(entryName);
+            to = Math.min(to, index.size());
+            if (from >= to)
+                return new String[]{};
+            int first = index.physical(from);
+            int last = index.physical(to - 1) + 1;
+            long[] offsets;
+            try (FileChannel channel = FileChannel.open(Paths.get(indexPath), StandardOpenOption.READ)) {
+                offsets = index.offsets(channel, first, last);
+            }
+            long size = offsets[last - first] - offsets[0];
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Data too large to read at once");
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            try (FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ)) {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offsets[0] + buffer.position()) < 0)
+                        throw new IOException("Data file is shorter than its line index");
+                }
+            }
+            metrics.bytesRead.add(size + 8L * offsets.length);
+
+            byte[] bytes = buffer.array();
+            List<String> lines = new ArrayList<>(to - from);
+            for (int i = first; i < last; i++) {
+                if (!index.isRemoved(i))
+                    lines.add(line(bytes, (int) (offsets[i - first] - offsets[0]), (int) (offsets[i - first + 1] - offsets[0])));
+            }
+            return lines.toArray(new String[]{});
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Read error", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the line index of a plain data file, reading it on first use, or {@code null} if the file has none.
+     * Completes a rewrite of the data file interrupted by a crash, and indexes lines appended after the index.
+     */
+    private LineIndex lineIndex(String entryName) throws IOException {
+        LineIndex index = lineIndexes.get(entryName);
+        if (index != null)
+            return index;
+        String path = currentPath + entryName + File.separator + entryName;
+        File indexFile = new File(path + ".lines.dat");
+        File newIndexFile = new File(path + ".lines.new.dat");
+        // A rewrite writes the new data file and its index first, then moves them in place one after the other
+        if (newIndexFile.exists()) {
+            if (new File(path + ".new.dat").exists())
+                newIndexFile.delete();
+            else
+                Files.move(newIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (!indexFile.exists())
+            return null;
+        long length = new File(path + ".dat").length();
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            index = LineIndex.read(channel);
+            if (index == null || index.length > length) {
+                diagnostics.report(ErrorCode.IO_ERROR, entryName, "Line index of " + entryName + " does not match its data");
+                index = null;
+            }
+            if (index != null && index.length < length) {
+                try (FileChannel data = FileChannel.open(Paths.get(path + ".dat"), StandardOpenOption.READ)) {
+                    index = index.append(channel, lineStarts(data, index.length, length), length);
+                }
+            }
+        }
+        // Dropped, so the index is built again from the data file when needed
+        if (index == null) {
+            indexFile.delete();
+            return null;
+        }
+        lineIndexes.put(entryName, index);
+        return index;
+    }
+
+    // Returns the line index of a plain data file, building it if the file has none
+    private LineIndex indexLines(String entryName) throws IOException {
+        LineIndex index = lineIndex(entryName);
+        if (index != null)
+            return index;
+        String path = currentPath + entryName + File.separator + entryName;
+        long[] starts;
+        long length;
+        try (FileChannel data = FileChannel.open(Paths.get(path + ".dat"), StandardOpenOption.READ)) {
+            length = data.size();
+            starts = lineStarts(data, 0, length);
+        }
+        metrics.bytesRead.add(length);
+        try (FileChannel channel = FileChannel.open(Paths.get(path + ".lines.dat"), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            index = LineIndex.write(channel, starts, length);
+        }
+        lineIndexes.put(entryName, index);
+        return index;
+    }
+
+    /**
+     * Reads the lines of a plain data file, skipping the removed lines. Like {@link #lineStarts} and {@link DataView},
+     * a line ends at {@code '\n'}, and a {@code '\r'} right before it is dropped, so a lone {@code '\r'} stays part of the line.
+     */
+    private static List<String> readLines(FileChannel channel, int[] removed) throws IOException {
+        List<String> lines = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(64 << 10);
+        byte[] bytes = buffer.array();
+        // Start of a line read with the previous buffer
+        ByteArrayOutputStream partial = new ByteArrayOutputStream();
+        int line = 0;
+        int next = 0;
+        while (channel.read(buffer) >= 0) {
+            int start = 0;
+            for (int i = 0; i < buffer.position(); i++) {
+                if (bytes[i] != '\n')
+                    continue;
+                // Skip lines marked as removed in the line index
+                if (next < removed.length && removed[next] == line) {
+                    next++;
+                } else if (partial.size() == 0) {
+                    lines.add(line(bytes, start, i + 1));
+                } else {
+                    partial.write(bytes, start, i + 1 - start);
+                    lines.add(line(partial.toByteArray(), 0, partial.size()));
+                }
+                partial.reset();
+                line++;
+                start = i + 1;
+            }
+            partial.write(bytes, start, buffer.position() - start);
+            buffer.clear();
+        }
+        // Last line without a line break
+        if (partial.size() > 0 && !(next < removed.length && removed[next] == line))
+            lines.add(line(partial.toByteArray(), 0, partial.size()));
+        return lines;
+    }
+
+    // Decodes a line of a data file without its line break
+    private static String line(byte[] bytes, int start, int end) {
+        if (end > start && bytes[end - 1] == '\n')
+            end--;
+        if (end > start && bytes[end - 1] == '\r')
+            end--;
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    // Returns the start offsets of the lines of a data file between the positions, from being the start of a line
+    private static long[] lineStarts(FileChannel channel, long from, long to) throws IOException {
+        long[] starts = new long[16];
+        int count = 0;
+        long lineStart = from;
+        ByteBuffer buffer = ByteBuffer.allocate(64 << 10);
+        for (long position = from; position < to; ) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                break;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) != '\n')
+                    continue;
+                if (count == starts.length)
+                    starts = Arrays.copyOf(starts, count * 2);
+                starts[count++] = lineStart;
+                lineStart = position + i + 1;
+            }
+            position += read;
+        }
+        // Last line without a line break
+        if (lineStart < to) {
+            starts = Arrays.copyOf(starts, count + 1);
+            starts[count++] = lineStart;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    // Writes the lines from the position of the data file, and returns the start offset of every line
+    private static long[] writeLines(OutputStream out, Collection<String> data, long position) throws IOException {
+        long[] starts = new long[data.size()];
+        int i = 0;
+        for (String line : data) {
+            byte[] bytes = (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+            starts[i++] = position;
+            position += bytes.length;
+        }
+        return starts;
+    }
+
+    // Reads the lines from (inclusive) to (exclusive) of a compressed data file
+    private String[] readBlocks(String entryName, int from, int to) {
+        String filepath = currentPath + entryName + File.separator + entryName + ".z.dat";
+        try (FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ)) {
+            BlockFile.Index index = index(entryName, channel);
+            to = Math.min(to, index.lines());
+            if (from >= to)
+                return new String[]{};
+            int first = index.block(from);
+            int last = index.block(to - 1) + 1;
+            List<String> lines = BlockFile.lines(BlockFile.read(channel, index, first, last));
+            metrics.bytesRead.add(BlockFile.storedSize(index, first, last));
+            int offset = index.firstLines[first];
+            return lines.subList(from - offset, to - offset).toArray(new String[]{});
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Read error", e);
+            return null;
+        }
+    }
+
+    // Returns the path of the data file of the entry, compressed or plain
+    private String dataPath(String entryName) {
+        return currentPath + entryName + File.separator + entryName + (isCompressed(entryName) ? ".z.dat" : ".dat");
+    }
+
+    /**
+     * Returns whether the data file of the entry is compressed, whatever the current option.
+     * Completes a change of the data file format interrupted by a crash.
+     */
+    private boolean isCompressed(String entryName) {
+        Boolean compressedFile = formats.get(entryName);
+        if (compressedFile != null)
+            return compressedFile;
+        String path = currentPath + entryName + File.separator + entryName;
+        File plain = new File(path + ".dat");
+        if (new File(path + ".z.dat").exists()) {
+            // Compressing moves the compressed file in place before deleting the plain one
+            if (plain.exists()) {
+                plain.delete();
+                new File(path + ".lines.dat").delete();
+            }
+            compressedFile = true;
+        } else {
+            // Decompressing deletes the compressed file before moving the plain one in place
+            File written = new File(path + ".new.dat");
+            if (!plain.exists() && written.exists())
+                written.renameTo(plain);
+            compressedFile = false;
+        }
+        formats.put(entryName, compressedFile);
+        return compressedFile;
+    }
+
+    private BlockFile.Index index(String entryName, FileChannel channel) throws IOException {
+        BlockFile.Index index = indexes.get(entryName);
+        if (index == null) {
+            index = BlockFile.index(channel);
+            indexes.put(entryName, index);
+        }
+        return index;
+    }
+
+    @Override
+    boolean writeData(String entryName, String[] data) {
+        if (!exists(entryName)) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Dir/File " + entryName + " not found");
+            return false;
+        }
+        if (compressed)
+            return writeBlocks(entryName, Arrays.asList(data));
+        boolean decompress = isCompressed(entryName);
+        String filepath = currentPath + entryName + File.separator + entryName + ".dat";
+        // Replace the file instead of truncating it, so mapped views of the old data stay readable
+        String tempPath = currentPath + entryName + File.separator + entryName + ".new.dat";
+        String indexPath = currentPath + entryName + File.separator + entryName + ".lines.dat";
+        String tempIndexPath = currentPath + entryName + File.separator + entryName + ".lines.new.dat";
+        try {
+            // Complete an earlier interrupted rewrite before starting this one
+            if (!decompress)
+                lineIndex(entryName);
+            lineIndexes.remove(entryName);
+            long[] starts;
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempPath))) {
+                starts = writeLines(out, Arrays.asList(data), 0);
+            }
+            long length = new File(tempPath).length();
+            LineIndex index;
+            try (FileChannel channel = FileChannel.open(Paths.get(tempIndexPath), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                index = LineIndex.write(channel, starts, length);
+            }
+            if (decompress) {
+                Files.delete(Paths.get(currentPath + entryName + File.separator + entryName + ".z.dat"));
+                indexes.remove(entryName);
+                formats.put(entryName, false);
+            }
+            Files.move(Paths.get(tempPath), Paths.get(filepath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(Paths.get(tempIndexPath), Paths.get(indexPath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lineIndexes.put(entryName, index);
+            metrics.bytesWritten.add(length + new File(indexPath).length());
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Write error", e);
+            return false;
+        }
+        return true;
+    }
+
+    // Replaces the data file with a compressed one
+    private boolean writeBlocks(String entryName, List<String> data) {
+        String path = currentPath + entryName + File.separator + entryName;
+        boolean plain = !isCompressed(entryName);
+        try {
+            BlockFile.Index index;
+            try (FileChannel channel = FileChannel.open(Paths.get(path + ".z.new.dat"), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                index = BlockFile.write(channel, data);
+            }
+            Files.move(Paths.get(path + ".z.new.dat"), Paths.get(path + ".z.dat"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            indexes.put(entryName, index);
+            formats.put(entryName, true);
+            if (plain) {
+                lineIndexes.remove(entryName);
+                new File(path + ".dat").delete();
+                new File(path + ".lines.dat").delete();
+            }
+            metrics.bytesWritten.add(index.end);
+        } catch (IOException e) {
+            indexes.remove(entryName);
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Write error", e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    boolean appendData(String entryName, List<String> data) {
+        String filepath = dataPath(entryName);
+        if (!new File(filepath).exists()) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Dir/File " + entryName + " not found");
+            return false;
+        }
+        if (isCompressed(entryName))
+            return appendBlocks(entryName, data);
+        String indexPath = currentPath + entryName + File.separator + entryName + ".lines.dat";
+        try {
+            LineIndex index = lineIndex(entryName);
+            long size = new File(filepath).length();
+            long[] starts;
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filepath, true))) {
+                starts = writeLines(out, data, size);
+            }
+            long length = new File(filepath).length();
+            metrics.bytesWritten.add(length - size);
+            if (index != null) {
+                try (FileChannel channel = FileChannel.open(Paths.get(indexPath), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    lineIndexes.put(entryName, index.append(channel, starts, length));
+                }
+                metrics.bytesWritten.add(8L * starts.length);
+            }
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Write error", e);
+            return false;
+        }
+        return true;
+    }
+
+    // Adds blocks after the existing ones, and rewrites the file once small appends left too many blocks
+    private boolean appendBlocks(String entryName, List<String> data) {
+        String filepath = currentPath + entryName + File.separator + entryName + ".z.dat";
+        List<String> lines;
+        try (FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            BlockFile.Index before = index(entryName, channel);
+            BlockFile.Index index = BlockFile.append(channel, before, data);
+            indexes.put(entryName, index);
+            metrics.bytesWritten.add(index.end - before.end);
+            if (!index.fragmented())
+                return true;
+            lines = BlockFile.lines(BlockFile.read(channel, index, 0, index.blocks()));
+            metrics.bytesRead.add(index.end);
+        } catch (IOException e) {
+            indexes.remove(entryName);
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Write error", e);
+            return false;
+        }
+        return writeBlocks(entryName, lines);
+    }
+
+    @Override
+    boolean removeData(String entryName, int line) {
+        if (!exists(entryName) || isCompressed(entryName))
+            return super.removeData(entryName, line);
+        String indexPath = currentPath + entryName + File.separator + entryName + ".lines.dat";
+        try {
+            LineIndex index = indexLines(entryName);
+            if (line < 0 || line >= index.size()) {
+                diagnostics.report(ErrorCode.IO_ERROR, entryName, "Line " + line + " of " + entryName + " not found");
+                return false;
+            }
+            try (FileChannel channel = FileChannel.open(Paths.get(indexPath), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                index = index.remove(channel, line);
+            }
+            lineIndexes.put(entryName, index);
+            metrics.bytesWritten.add(8);
+        } catch (IOException e) {
+            lineIndexes.remove(entryName);
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Write error", e);
+            return false;
+        }
+        // Rewrite the data file without removed lines once they outnumber the others
+        LineIndex index = lineIndexes.get(entryName);
+        if (index.removed.length > Math.max(index.size(), 64)) {
+            String[] data = readData(entryName);
+            return data != null && writeData(entryName, data);
+        }
+        return true;
+    }
+
+    @Override
+    DataView viewData(String entryName) {
+        String filepath = dataPath(entryName);
+        try (FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ)) {
+            if (isCompressed(entryName)) {
+                BlockFile.Index index = index(entryName, channel);
+                byte[] raw = BlockFile.read(channel, index, 0, index.blocks());
+                metrics.bytesRead.add(index.end);
+                return new DataView(ByteBuffer.wrap(raw), StandardCharsets.UTF_8);
+            }
+            LineIndex index = lineIndex(entryName);
+            if (index != null && index.removed.length > 0) {
+                // Removed lines are still in the file, so the view is built from the remaining lines
+                String[] data = readData(entryName);
+                return data == null ? null : DataView.of(data);
+            }
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                diagnostics.report(ErrorCode.IO_ERROR, entryName, "File " + entryName + " is too large to map");
+                return null;
+            }
+            ByteBuffer buffer = size == 0 ? ByteBuffer.allocate(0) : channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            metrics.bytesRead.add(size);
+            return new DataView(buffer, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Map error", e);
+            return null;
+        }
+    }
+
+    @Override
+    boolean make(String entryName) {
+        File folder = new File(currentPath + entryName);
+        File file = new File(currentPath + entryName + File.separator + entryName + (compressed ? ".z.dat" : ".dat"));
+
+        if (!folder.mkdir()) {
+            diagnostics.report(ErrorCode.ENTRY_EXISTS, entryName, "Directory " + entryName + " exists");
+            return false;
+        }
+        try {
+            if (!file.createNewFile()) {
+                diagnostics.report(ErrorCode.ENTRY_EXISTS, entryName, "File " + entryName + " exists");
+                return false;
+            }
+            indexes.remove(entryName);
+            lineIndexes.remove(entryName);
+            formats.put(entryName, compressed);
+            if (compressed) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    indexes.put(entryName, BlockFile.write(channel, new ArrayList<String>()));
+                }
+            } else {
+                String indexPath = currentPath + entryName + File.separator + entryName + ".lines.dat";
+                try (FileChannel channel = FileChannel.open(Paths.get(indexPath), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    lineIndexes.put(entryName, LineIndex.write(channel, new long[0], 0));
+                }
+            }
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Make error", e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    boolean delete(String entryName) {
+        File folder = new File(currentPath + entryName);
+        indexes.remove(entryName);
+        lineIndexes.remove(entryName);
+        formats.remove(entryName);
+
+        String[] files = folder.list();
+        if (files != null) {
+            for (String file : files) {
+                new File(folder.getPath(), file).delete();
+            }
+        }
+        if (!folder.delete()) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Directory " + entryName + " not found");
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    boolean rename(String entryName, String newName) {
+        File folder = new File(currentPath + entryName);
+        File file = new File(dataPath(entryName));
+        String suffix = isCompressed(entryName) ? ".z.dat" : ".dat";
+
+        if (new File(currentPath + newName).exists()) {
+            diagnostics.report(ErrorCode.ENTRY_EXISTS, newName, "Dir " + newName + " exists");
+            return false;
+        }
+        if (!folder.exists() || !file.exists()) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Dir/File " + entryName + " not found");
+            return false;
+        }
+
+        // Complete an interrupted rewrite while its files still carry the old name
+        try {
+            lineIndex(entryName);
+        } catch (IOException e) {
+            lineIndexes.remove(entryName);
+        }
+        file = new File(currentPath + newName + File.separator + entryName + suffix);
+        if (!folder.renameTo(new File(currentPath + newName)) ||
+                !file.renameTo(new File(currentPath + newName + File.separator + newName + suffix))) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Rename error");
+            return false;
+        }
+        File lines = new File(currentPath + newName + File.separator + entryName + ".lines.dat");
+        if (lines.exists())
+            lines.renameTo(new File(currentPath + newName + File.separator + newName + ".lines.dat"));
+        BlockFile.Index index = indexes.remove(entryName);
+        if (index != null)
+            indexes.put(newName, index);
+        LineIndex lineIndex = lineIndexes.remove(entryName);
+        if (lineIndex != null)
+            lineIndexes.put(newName, lineIndex);
+        formats.put(newName, formats.remove(entryName));
+        return true;
+    }
+
+    @Override
+    void sync(Collection<String> entryNames) throws IOException {
+        for (String entryName : entryNames) {
+            for (String suffix : new String[]{".dat", ".z.dat", ".lines.dat"}) {
+                File file = new File(currentPath + entryName + File.separator + entryName + suffix);
+                if (!file.exists())
+                    continue;
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+        }
+    }
+
+    @Override
+    void close() {
+    }
+}
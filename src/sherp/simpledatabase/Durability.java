@@ -0,0 +1,20 @@
+package sherp.simpledatabase;
+
+/**
+ * Controls when the database change log is forced to disk.
+ */
+public enum Durability {
+    /**
+     * Log records are handed to the operating system, but never forced to disk.
+     */
+    NONE,
+    /**
+     * Every batch of log records is forced to disk right after it is written.
+     * Changes wait until their record is on disk, concurrent changes share one force.
+     */
+    BATCH,
+    /**
+     * Log records are forced to disk at most once per configured interval.
+     */
+    INTERVAL
+}
@@ -1,17 +1,59 @@
 package sherp.simpledatabase;
 
+import java.io.File;
+import java.io.InputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
 
 public class Entry {
     String name;
-    List<String> data;
-    List<String> localFiles;
+    long position;
+    private volatile List<String> data;
+    private volatile Reference<List<String>> coldData;
+    private volatile List<String> localFiles;
+    // Names of the local files, for lookups without scanning the list
+    private volatile Set<String> localNames;
     List<String> remoteFiles;
+    // Local files removed from the entry but not yet deleted from its folder, guarded by the entry monitor
+    final Set<String> removedFiles;
     private final List<EntryListener> entryListeners;
+    volatile FileManager fileManager;
+    private volatile boolean lazy;
+    private volatile DataCache cache;
+    private volatile DataLayout layout;
+    volatile VersionClock clock;
+    // Version of the current data and replaced data still visible to open snapshots, guarded by the entry monitor
+    private long version;
+    private Version versions;
+
+    private static class Version {
+        final long from;
+        final long to;
+        final String[] data;
+        final Version older;
+
+        Version(long from, long to, String[] data, Version older) {
+            this.from = from;
+            this.to = to;
+            this.data = data;
+            this.older = older;
+        }
+    }
 
     /**
      * Creates a new entry with the specified name.
@@ -24,10 +66,224 @@ public class Entry {
         if (name.equals(""))
             throw new IllegalArgumentException("Empty name");
         this.name = name;
-        data = new CopyOnWriteArrayList<>();
+        data = Collections.synchronizedList(new ArrayList<>());
+        layout = DataLayout.STRINGS;
         localFiles = new CopyOnWriteArrayList<>();
+        localNames = ConcurrentHashMap.newKeySet();
+        remoteFiles = new CopyOnWriteArrayList<>();
+        removedFiles = new LinkedHashSet<>();
+        entryListeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Creates an entry read from the database, without notifying listeners or copying the data line by line.
+     */
+    Entry(String name, String[] data, String[] files, DataLayout layout) {
+        this.name = name;
+        this.layout = layout;
+        this.data = newData(Arrays.asList(data));
+        localFiles = new CopyOnWriteArrayList<>(files);
+        localNames = ConcurrentHashMap.newKeySet();
+        localNames.addAll(localFiles);
+        remoteFiles = new CopyOnWriteArrayList<>();
+        removedFiles = new LinkedHashSet<>();
+        entryListeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Creates an entry whose data and files are read from the database on first access.
+     * Loaded data is only softly referenced outside of mutations,
+     * so it can be dropped under memory pressure and read again later.
+     * With a cache, the data is held by the cache instead and dropped once evicted.
+     * <p>
+     * Mutations, loading and renaming of an entry are serialized on the entry's monitor,
+     * so writes to different entries never wait for each other.
+     */
+    Entry(String name, FileManager fileManager, DataCache cache, DataLayout layout) {
+        this.name = name;
+        this.layout = layout;
         remoteFiles = new CopyOnWriteArrayList<>();
-        entryListeners = new CopyOnWriteArrayList();
+        removedFiles = new LinkedHashSet<>();
+        entryListeners = new CopyOnWriteArrayList<>();
+        this.fileManager = fileManager;
+        this.cache = cache;
+        lazy = true;
+    }
+
+    private List<String> newData(Collection<String> lines) {
+        if (layout == DataLayout.STRINGS)
+            return Collections.synchronizedList(new ArrayList<>(lines));
+        return new CompactLines(lines, layout == DataLayout.OFF_HEAP);
+    }
+
+    /**
+     * Switches the in-memory representation of the data, converting the data if it is loaded.
+     */
+    synchronized void setLayout(DataLayout layout) {
+        if (this.layout == layout)
+            return;
+        this.layout = layout;
+        List<String> data = this.data;
+        if (data != null) {
+            synchronized (data) {
+                this.data = newData(data);
+            }
+        }
+    }
+
+    synchronized void attach(DataCache cache) {
+        List<String> data = this.data;
+        this.cache = cache;
+        lazy = true;
+        coldData = new WeakReference<>(data);
+        this.data = null;
+        cache.admit(this, data);
+    }
+
+    void detach() {
+        DataCache cache = this.cache;
+        if (cache != null)
+            cache.remove(this);
+    }
+
+    private List<String> resident() {
+        List<String> data = this.data;
+        if (data == null) {
+            Reference<List<String>> cold = coldData;
+            if (cold != null)
+                data = cold.get();
+        }
+        return data;
+    }
+
+    /**
+     * Returns the amount of data lines held in memory, {@code -1} if the data is not loaded.
+     */
+    int residentCount() {
+        List<String> data = resident();
+        return data == null ? -1 : data.size();
+    }
+
+    List<String> data() {
+        DataCache cache = this.cache;
+        List<String> data = resident();
+        if (data == null) {
+            synchronized (this) {
+                data = resident();
+                if (data == null) {
+                    String[] read = fileManager.readData(this);
+                    data = newData(read == null ? Collections.<String>emptyList() : Arrays.asList(read));
+                    coldData = cache == null ? new SoftReference<>(data) : new WeakReference<>(data);
+                    if (cache != null)
+                        cache.miss(this, data);
+                    return data;
+                }
+            }
+        }
+        if (cache != null)
+            cache.hit(this, data);
+        return data;
+    }
+
+    // Called with the entry monitor held: keeps the data strongly reachable until the change is written
+    private List<String> pin() {
+        List<String> data = data();
+        this.data = data;
+        return data;
+    }
+
+    private void release() {
+        if (lazy)
+            data = null;
+    }
+
+    /**
+     * Gives the data change that is about to be made a new version. Keeps a copy of the current data
+     * if an open snapshot reads it, and drops copies no open snapshot reads any more.
+     * Called with the entry monitor held, before the data changes.
+     */
+    private void advance(List<String> lines) {
+        VersionClock clock = this.clock;
+        if (clock == null)
+            return;
+        long next = clock.advance();
+        Version kept = null;
+        for (Version v = versions; v != null; v = v.older) {
+            if (clock.visible(v.from, v.to))
+                kept = new Version(v.from, v.to, v.data, kept);
+        }
+        if (clock.visible(version, next))
+            kept = new Version(version, next, lines.toArray(new String[]{}), kept);
+        versions = kept;
+        version = next;
+    }
+
+    /**
+     * Gives the entry a new version when it is deleted, keeping its data for open snapshots.
+     */
+    synchronized void retire() {
+        VersionClock clock = this.clock;
+        if (clock != null && clock.visible(version, Long.MAX_VALUE))
+            advance(data());
+    }
+
+    /**
+     * Returns the data as it was at the given version.
+     *
+     * @throws IllegalStateException if the data of that version is no longer kept
+     */
+    synchronized String[] getData(long at) {
+        if (version <= at)
+            return getData();
+        for (Version v = versions; v != null; v = v.older) {
+            if (v.from <= at && at < v.to)
+                return v.data.clone();
+        }
+        throw new IllegalStateException("Version " + at + " of entry \"" + name + "\" is no longer kept");
+    }
+
+    private void resize(long delta) {
+        DataCache cache = this.cache;
+        if (cache != null)
+            cache.resize(this, delta);
+    }
+
+    private static long weigh(List<String> lines, Collection<String> data) {
+        boolean compact = lines instanceof CompactLines;
+        long weight = 0;
+        for (String line : data)
+            weight += compact ? CompactLines.weigh(line) : DataCache.weigh(line);
+        return weight;
+    }
+
+    List<String> localFiles() {
+        List<String> files = localFiles;
+        if (files == null) {
+            synchronized (this) {
+                if (localFiles == null) {
+                    String[] read = fileManager.readFiles(this);
+                    List<String> loaded = new CopyOnWriteArrayList<>(read == null ? new String[]{} : read);
+                    Set<String> names = ConcurrentHashMap.newKeySet();
+                    names.addAll(loaded);
+                    localNames = names;
+                    localFiles = loaded;
+                }
+                files = localFiles;
+            }
+        }
+        return files;
+    }
+
+    boolean hasLocalFile(String fileName) {
+        localFiles();
+        return localNames.contains(fileName);
+    }
+
+    // Called with the entry monitor held once the file is in the entry folder
+    void addLocalFile(String fileName) {
+        localFiles().add(fileName);
+        localNames.add(fileName);
+        removedFiles.remove(fileName);
     }
 
     synchronized void addListener(EntryListener l) {
@@ -42,13 +298,29 @@ public class Entry {
 //        for (EntryListener l : entryListeners)
 //            l.entryNameChanged(this);
 //    }
-    private void updateData() {
+    private void updateData(List<String> appended) {
+        for (EntryListener l : entryListeners)
+            l.entryDataAppended(this, appended);
+    }
+    private void updateDataRemoved(int index, String line) {
+        for (EntryListener l : entryListeners)
+            l.entryDataRemoved(this, index, line);
+    }
+    private void updateDataCleared() {
+        for (EntryListener l : entryListeners)
+            l.entryDataCleared(this);
+    }
+    private void updateFiles(List<String> added) {
+        for (EntryListener l : entryListeners)
+            l.entryFilesAdded(this, added);
+    }
+    private void updateFileRemoved(int index, String file) {
         for (EntryListener l : entryListeners)
-            l.entryDataChanged(this);
+            l.entryFileRemoved(this, index, file);
     }
-    private void updateFiles() {
+    private void updateFilesCleared() {
         for (EntryListener l : entryListeners)
-            l.entryFilesChanged(this);
+            l.entryFilesCleared(this);
     }
 
     /**
@@ -80,7 +352,74 @@ public class Entry {
      * @return Array of data
      */
     public String[] getData() {
-        return data.toArray(new String[]{});
+        return data().toArray(new String[]{});
+    }
+
+    /**
+     * Returns the data lines from {@code from} (inclusive) to {@code to} (exclusive), fewer if the entry has fewer lines.
+     * When the data of the entry is not loaded, only the requested lines are read from the database,
+     * without loading the rest of the data.
+     *
+     * @param from index of the first line
+     * @param to index after the last line
+     * @return Array of data
+     * @throws IllegalArgumentException if {@code from} is negative or greater than {@code to}
+     */
+    public String[] getData(int from, int to) {
+        if (from < 0 || from > to)
+            throw new IllegalArgumentException("Invalid range " + from + " to " + to);
+        FileManager fileManager = this.fileManager;
+        if (resident() == null && fileManager != null) {
+            synchronized (this) {
+                if (resident() == null) {
+                    String[] read = fileManager.readData(name, from, to);
+                    if (read != null)
+                        return read;
+                }
+            }
+        }
+        List<String> data = data();
+        synchronized (this) {
+            int end = Math.min(to, data.size());
+            return from >= end ? new String[]{} : data.subList(from, end).toArray(new String[]{});
+        }
+    }
+
+    /**
+     * Returns a stream over a copy of the data lines. The stream splits evenly when made parallel.
+     *
+     * @return Stream of data lines
+     */
+    public Stream<String> dataStream() {
+        return Arrays.stream(getData());
+    }
+
+    /**
+     * Returns a read-only view of the stored data lines. Lines are exposed as {@code ByteBuffer} slices
+     * of the entry data file, which is memory-mapped when the database keeps it as a separate file,
+     * so scanning the view does not create a {@code String} per line.
+     * The view reflects the data at the time of the call and is not updated by later changes.
+     * With a compact data layout, the view is a copy of the encoded lines held in memory.
+     * For an entry that is not in a database, the view is built from the in-memory data.
+     *
+     * @return Data view
+     */
+    public DataView getDataView() {
+        List<String> data = resident();
+        if (data instanceof CompactLines)
+            return ((CompactLines) data).view();
+        FileManager fileManager = this.fileManager;
+        if (fileManager != null) {
+            DataView view;
+            synchronized (this) {
+                for (EntryListener l : entryListeners)
+                    l.entryDataViewed(this);
+                view = fileManager.viewData(this);
+            }
+            if (view != null)
+                return view;
+        }
+        return DataView.of(getData());
     }
 
     /**
@@ -90,7 +429,7 @@ public class Entry {
      */
     public String[] getFiles() {
         List<String> files = new ArrayList<>();
-        files.addAll(localFiles);
+        files.addAll(localFiles());
         files.addAll(remoteFiles);
         return files.toArray(new String[]{});
     }
@@ -101,7 +440,7 @@ public class Entry {
      * @return Amount of data lines
      */
     public int dataCount() {
-        return data.size();
+        return data().size();
     }
 
     /**
@@ -110,7 +449,7 @@ public class Entry {
      * @return Amount of files
      */
     public int filesCount() {
-        return localFiles.size() + remoteFiles.size();
+        return localFiles().size() + remoteFiles.size();
     }
 
     /**
@@ -118,9 +457,16 @@ public class Entry {
      *
      * @param data single line of data
      */
-    public void uploadData(String data) {
-        this.data.add(data);
-        updateData();
+    public synchronized void uploadData(String data) {
+        List<String> lines = pin();
+        try {
+            advance(lines);
+            lines.add(data);
+            resize(weigh(lines, Collections.singletonList(data)));
+            updateData(Collections.singletonList(data));
+        } finally {
+            release();
+        }
     }
 
     /**
@@ -128,9 +474,17 @@ public class Entry {
      *
      * @param data array of data
      */
-    public void uploadData(String... data) {
-        this.data.addAll(Arrays.asList(data));
-        updateData();
+    public synchronized void uploadData(String... data) {
+        List<String> appended = Arrays.asList(data);
+        List<String> lines = pin();
+        try {
+            advance(lines);
+            lines.addAll(appended);
+            resize(weigh(lines, appended));
+            updateData(appended);
+        } finally {
+            release();
+        }
     }
 
     /**
@@ -138,9 +492,17 @@ public class Entry {
      *
      * @param data collection of data
      */
-    public void uploadData(Collection<String> data) {
-        this.data.addAll(data);
-        updateData();
+    public synchronized void uploadData(Collection<String> data) {
+        List<String> appended = new ArrayList<>(data);
+        List<String> lines = pin();
+        try {
+            advance(lines);
+            lines.addAll(appended);
+            resize(weigh(lines, appended));
+            updateData(appended);
+        } finally {
+            release();
+        }
     }
 
     /**
@@ -148,9 +510,9 @@ public class Entry {
      *
      * @param path path to a file
      */
-    public void uploadFile(String path) {
+    public synchronized void uploadFile(String path) {
         remoteFiles.add(path);
-        updateFiles();
+        updateFiles(Collections.singletonList(path));
     }
 
     /**
@@ -158,9 +520,10 @@ public class Entry {
      *
      * @param paths array of file paths
      */
-    public void uploadFiles(String... paths) {
-        remoteFiles.addAll(Arrays.asList(paths));
-        updateFiles();
+    public synchronized void uploadFiles(String... paths) {
+        List<String> added = Arrays.asList(paths);
+        remoteFiles.addAll(added);
+        updateFiles(added);
     }
 
     /**
@@ -168,9 +531,74 @@ public class Entry {
      *
      * @param paths collection of file paths
      */
-    public void uploadFiles(Collection<String> paths) {
-        remoteFiles.addAll(paths);
-        updateFiles();
+    public synchronized void uploadFiles(Collection<String> paths) {
+        List<String> added = new ArrayList<>(paths);
+        remoteFiles.addAll(added);
+        updateFiles(added);
+    }
+
+    /**
+     * Imports a file into the entry under the given name. The file is copied from the channel as it is read,
+     * from a {@code FileChannel} the operating system transfers the content directly.
+     * The entry is not locked while the file is transferred.
+     *
+     * @param fileName name of the file in the entry
+     * @param source channel the file is read from, up to its end
+     * @return {@code true} if imported successfully, {@code false} if the entry is not in a database, a file with the same name exists or reading failed
+     * @throws IllegalArgumentException if the name is empty or contains a path separator
+     */
+    public boolean importFile(String fileName, ReadableByteChannel source) {
+        FileManager fileManager = this.fileManager;
+        fileName = fileName.trim();
+        if (fileName.equals("") || fileName.contains("/") || fileName.contains(File.separator))
+            throw new IllegalArgumentException("Invalid file name");
+        if (fileManager == null) {
+            Diagnostics.DEFAULT.report(ErrorCode.NOT_IN_DATABASE, name, "Entry \"" + name + "\" is not in a database");
+            return false;
+        }
+        Path received = fileManager.receiveFile(source);
+        if (received == null)
+            return false;
+        synchronized (this) {
+            if (!fileManager.attachFile(this, received, fileName))
+                return false;
+            updateFiles(Collections.singletonList(fileName));
+        }
+        return true;
+    }
+
+    /**
+     * Imports a file into the entry under the given name, reading the stream up to its end.
+     * See {@link #importFile(String, ReadableByteChannel)}.
+     *
+     * @param fileName name of the file in the entry
+     * @param source stream the file is read from
+     * @return {@code true} if imported successfully, {@code false} if the entry is not in a database, a file with the same name exists or reading failed
+     * @throws IllegalArgumentException if the name is empty or contains a path separator
+     */
+    public boolean importFile(String fileName, InputStream source) {
+        return importFile(fileName, Channels.newChannel(source));
+    }
+
+    /**
+     * Writes the content of an entry file to the channel. The operating system transfers the content
+     * without copying it through the application where the channel allows it.
+     *
+     * @param fileName name of the file in the entry
+     * @param target channel the file is written to
+     * @return Amount of written bytes, {@code -1} if the file is not found or writing failed
+     */
+    public long exportFile(String fileName, WritableByteChannel target) {
+        FileManager fileManager = this.fileManager;
+        if (fileManager == null) {
+            Diagnostics.DEFAULT.report(ErrorCode.NOT_IN_DATABASE, name, "Entry \"" + name + "\" is not in a database");
+            return -1;
+        }
+        if (!hasLocalFile(fileName)) {
+            fileManager.diagnostics.report(ErrorCode.FILE_NOT_FOUND, name, "File " + fileName + " not found in the entry " + name);
+            return -1;
+        }
+        return fileManager.exportFile(name, fileName, target);
     }
 
     /**
@@ -179,12 +607,19 @@ public class Entry {
      * @param index index of the {@code String} value in data array
      * @return {@code true} if removed successfully, {@code false} if {@code index} is out of bounds
      */
-    public boolean removeData(int index) {
-        if (index < 0 || index >= data.size())
-            return false;
-        data.remove(index);
-        updateData();
-        return true;
+    public synchronized boolean removeData(int index) {
+        List<String> lines = pin();
+        try {
+            if (index < 0 || index >= lines.size())
+                return false;
+            advance(lines);
+            String line = lines.remove(index);
+            resize(-weigh(lines, Collections.singletonList(line)));
+            updateDataRemoved(index, line);
+            return true;
+        } finally {
+            release();
+        }
     }
 
     /**
@@ -193,46 +628,63 @@ public class Entry {
      * @param index index of the {@code String} value in files array
      * @return {@code true} if removed successfully, {@code false} if {@code index} is out of bounds
      */
-    public boolean removeFile(int index) {
+    public synchronized boolean removeFile(int index) {
         if (index < 0 || index >= filesCount())
             return false;
-        if (index < localFiles.size())
-            localFiles.remove(index);
-        else
-            remoteFiles.remove(index - localFiles.size());
-        updateFiles();
+        List<String> localFiles = localFiles();
+        String file;
+        if (index < localFiles.size()) {
+            file = localFiles.remove(index);
+            localNames.remove(file);
+            removedFiles.add(file);
+        } else
+            file = remoteFiles.remove(index - localFiles.size());
+        updateFileRemoved(index, file);
         return true;
     }
 
     /**
      * Clears the data array.
      */
-    public void clearData() {
-        data.clear();
-        updateData();
+    public synchronized void clearData() {
+        List<String> lines = pin();
+        try {
+            advance(lines);
+            lines.clear();
+            DataCache cache = this.cache;
+            if (cache != null)
+                cache.admit(this, lines);
+            updateDataCleared();
+        } finally {
+            release();
+        }
     }
 
     /**
      * Clears the files array.
      */
-    public void clearFiles() {
+    public synchronized void clearFiles() {
+        List<String> localFiles = localFiles();
+        removedFiles.addAll(localFiles);
         localFiles.clear();
+        localNames.clear();
         remoteFiles.clear();
-        updateFiles();
+        updateFilesCleared();
     }
 
     @Override
     public String toString() {
+        String[] data = getData();
         StringBuilder str = new StringBuilder();
         str.append("Name: ").append(name);
-        str.append(System.lineSeparator()).append("[").append(data.size()).append("] Data");
-        for (int i = 0; i < data.size(); i++) {
+        str.append(System.lineSeparator()).append("[").append(data.length).append("] Data");
+        for (int i = 0; i < data.length; i++) {
             str.append(System.lineSeparator());
-            if (i != data.size()-1)
+            if (i != data.length-1)
                 str.append("\u2502 ");
             else
                 str.append("\u2514 ");
-            str.append(data.get(i));
+            str.append(data[i]);
         }
         String[] files = getFiles();
         str.append(System.lineSeparator()).append("[").append(files.length).append("] Files");
@@ -1,7 +1,34 @@
 package sherp.simpledatabase;
 
+import java.util.List;
+
 abstract class EntryListener {
 //    void entryNameChanged(Entry entry);
     abstract void entryDataChanged(Entry entry);
+    abstract void entryDataAppended(Entry entry, List<String> data);
     abstract void entryFilesChanged(Entry entry);
+
+    void entryDataRemoved(Entry entry, int index, String line) {
+        entryDataChanged(entry);
+    }
+
+    void entryDataCleared(Entry entry) {
+        entryDataChanged(entry);
+    }
+
+    void entryFilesAdded(Entry entry, List<String> paths) {
+        entryFilesChanged(entry);
+    }
+
+    void entryFileRemoved(Entry entry, int index, String file) {
+        entryFilesChanged(entry);
+    }
+
+    void entryFilesCleared(Entry entry) {
+        entryFilesChanged(entry);
+    }
+
+    // Called with the entry monitor held before a view of the stored data is built
+    void entryDataViewed(Entry entry) {
+    }
 }
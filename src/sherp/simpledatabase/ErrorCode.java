@@ -0,0 +1,67 @@
+package sherp.simpledatabase;
+
+/**
+ * Kinds of errors reported by a database, see {@link DatabaseException}.
+ */
+public enum ErrorCode {
+    /**
+     * The database to connect to does not exist.
+     */
+    DATABASE_NOT_FOUND,
+    /**
+     * A database with the same name already exists in the location.
+     */
+    DATABASE_EXISTS,
+    /**
+     * The entry is not in the database.
+     */
+    ENTRY_NOT_FOUND,
+    /**
+     * An entry with the same name is already in the database.
+     */
+    ENTRY_EXISTS,
+    /**
+     * The entry name cannot be stored.
+     */
+    INVALID_NAME,
+    /**
+     * The entry has not been added to a database.
+     */
+    NOT_IN_DATABASE,
+    /**
+     * The index does not exist.
+     */
+    INDEX_NOT_FOUND,
+    /**
+     * An index with the same name already exists.
+     */
+    INDEX_EXISTS,
+    /**
+     * The file is not in the entry or the uploaded file does not exist.
+     */
+    FILE_NOT_FOUND,
+    /**
+     * A file with the same name is already in the entry.
+     */
+    FILE_EXISTS,
+    /**
+     * Reading or writing the database files failed.
+     */
+    IO_ERROR,
+    /**
+     * The database is closed.
+     */
+    CLOSED,
+    /**
+     * A requested feature is not supported by the file system or platform.
+     */
+    UNSUPPORTED,
+    /**
+     * A change subscriber threw an exception and was cancelled.
+     */
+    SUBSCRIBER_ERROR,
+    /**
+     * An unexpected error in a background task of the database.
+     */
+    INTERNAL_ERROR
+}
@@ -0,0 +1,16 @@
+package sherp.simpledatabase;
+
+/**
+ * Receives the errors reported by a database, set with {@link DatabaseOptions#setErrorHandler(ErrorHandler)}.
+ * Errors are handled one at a time on a background thread, never on the thread that hit them,
+ * and are rate limited, see {@link DatabaseOptions#setErrorRateLimit(int)}.
+ * The default handler prints the errors to {@code System.err}.
+ */
+public interface ErrorHandler {
+    /**
+     * Called for every reported error that is not suppressed.
+     *
+     * @param error reported error
+     */
+    void handle(DatabaseException error);
+}
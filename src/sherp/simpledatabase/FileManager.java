@@ -1,54 +1,188 @@
 package sherp.simpledatabase;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 class FileManager {
+    private static final long CHECKPOINT_SIZE = 16L << 20;
+    private static final long TRANSFER_SIZE = 1L << 30;
+
     String currentPath;
     static String dataFolderName;
-
-    private FileManager(boolean read, String path, String databaseName) {
+    private LogWriter logWriter;
+    // Log sequence number right after connecting, before any change of this session
+    long openSequence;
+    private Storage storage;
+    // Records of the batch the current thread applies which are already logged, in order; set while the batch
+    // is applied, which is not interrupted by checkpoints
+    private final ThreadLocal<Deque<byte[]>> batching;
+    // Changes hold the read lock while they are logged and applied, a checkpoint holds the write lock
+    private final ReentrantReadWriteLock checkpointLock;
+    private final Set<String> unsynced;
+    private final boolean linkFiles;
+    // Content-addressed store of entry files, null unless files are deduplicated
+    private BlobStore blobs;
+    final Metrics metrics;
+    final Diagnostics diagnostics;
+
+    private FileManager(boolean read, String path, String databaseName, DatabaseOptions options) {
         currentPath = path + File.separator + databaseName + File.separator;
         dataFolderName = ".sddata";
+        batching = new ThreadLocal<>();
+        checkpointLock = new ReentrantReadWriteLock();
+        unsynced = ConcurrentHashMap.newKeySet();
+        linkFiles = options.linkFiles;
+        metrics = new Metrics(options.metrics, options.metricsRegistry);
+        diagnostics = new Diagnostics(options.errorHandler, options.errorRateLimit);
 
         if (read) {
             if (!new File(currentPath).exists())
-                throw new RuntimeException("Database " + databaseName + " not found");
-            if (!new File(currentPath + dataFolderName + File.separator + "log.dat").exists()) {
-                try {
-                    new File(currentPath + dataFolderName + File.separator + "log.dat").createNewFile();
-                } catch (IOException e) {
-                    System.err.println("Log file error");
-                }
+                throw new DatabaseException(ErrorCode.DATABASE_NOT_FOUND, null, "Database " + databaseName + " not found");
+            new File(currentPath + dataFolderName).mkdirs();
+            // Leftovers of imports interrupted by a crash
+            File[] imports = new File(currentPath + dataFolderName + File.separator + "import").listFiles();
+            if (imports != null) {
+                for (File file : imports)
+                    file.delete();
             }
         } else {
             if (!new File(currentPath).mkdirs()) {
-                throw new RuntimeException("Database with the name" + databaseName + " exists in this location");
+                throw new DatabaseException(ErrorCode.DATABASE_EXISTS, null, "Database with the name " + databaseName + " exists in this location");
             }
-            // Log file
+            new File(currentPath + dataFolderName).mkdirs();
+        }
+
+        File pagedFile = new File(currentPath + dataFolderName + File.separator + "entries.db");
+        if (read ? pagedFile.exists() : options.storageType == StorageType.PAGED) {
             try {
-                new File(currentPath + dataFolderName).mkdirs();
-                new File(currentPath + dataFolderName + File.separator + "log.dat").createNewFile();
+                storage = new PagedStorage(pagedFile.getPath());
             } catch (IOException e) {
-                System.err.println("Log file error");
+                throw new DatabaseException(ErrorCode.IO_ERROR, null, "Entry file error", e);
             }
+        } else {
+            storage = new DirectoryStorage(currentPath, options.memoryMapped, options.compressedData);
+        }
+        storage.metrics = metrics;
+        storage.diagnostics = diagnostics;
+
+        try {
+            logWriter = new LogWriter(currentPath + dataFolderName + File.separator + "wal.dat", diagnostics);
+            List<byte[]> records = logWriter.recover();
+            replay(records);
+            if (!records.isEmpty())
+                checkpoint();
+        } catch (IOException e) {
+            throw new DatabaseException(ErrorCode.IO_ERROR, null, "Log file error", e);
+        }
+        openSequence = logWriter.sequence();
+        logWriter.start();
+
+        if (options.deduplicateFiles)
+            blobs = BlobStore.open(Paths.get(currentPath), Paths.get(currentPath + dataFolderName, "blobs"), Paths.get(currentPath + dataFolderName, "import"), diagnostics);
+    }
+
+    /**
+     * Reapplies logged changes after a crash. The storage may already hold some or all of them,
+     * so every change is only applied when needed.
+     * Entries that are renamed or deleted later in the log are resolved to their final name first,
+     * so that replaying older records does not bring back an entry under its old name.
+     */
+    private void replay(List<byte[]> records) throws IOException {
+        LogRecord[] log = new LogRecord[records.size()];
+        String[] targets = new String[log.length];
+        Map<String, String> finalNames = new HashMap<>();
+        for (int i = log.length - 1; i >= 0; i--) {
+            LogRecord record = log[i] = LogRecord.decode(records.get(i));
+            targets[i] = finalNames.containsKey(record.name) ? finalNames.get(record.name) : record.name;
+            if (record.type == LogRecord.DELETE) {
+                finalNames.put(record.name, null);
+            } else if (record.type == LogRecord.RENAME) {
+                String target = finalNames.containsKey(record.newName) ? finalNames.get(record.newName) : record.newName;
+                finalNames.remove(record.newName);
+                finalNames.put(record.name, target);
+            } else if (record.type == LogRecord.MAKE) {
+                finalNames.remove(record.name);
+            }
+        }
+        for (int i = 0; i < log.length; i++)
+            replay(log[i], targets[i]);
+    }
+
+    private void replay(LogRecord record, String target) {
+        unsynced.add(record.name);
+        if (target != null)
+            unsynced.add(target);
+        switch (record.type) {
+            case LogRecord.MAKE:
+                if (target != null && !storage.exists(target) && !storage.exists(record.name))
+                    storage.make(target);
+                return;
+            case LogRecord.DELETE:
+                if (storage.exists(record.name))
+                    deleteEntry(record.name);
+                return;
+            case LogRecord.RENAME:
+                if (storage.exists(record.name) && !storage.exists(record.newName))
+                    renameEntry(record.name, record.newName);
+                return;
+        }
+        // Data goes to the entry under its final name, or under the logged name if the rename is not applied yet
+        String entryName = storage.exists(record.name) ? record.name : target;
+        if (entryName == null || !storage.exists(entryName))
+            return;
+        if (record.type == LogRecord.WRITE) {
+            storage.writeData(entryName, record.data.toArray(new String[]{}));
+            return;
+        }
+        String[] read = storage.readData(entryName);
+        if (read == null) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Data of " + entryName + " unreadable, logged change skipped");
+            return;
+        }
+        List<String> data = new ArrayList<>(Arrays.asList(read));
+        if (record.type == LogRecord.REMOVE) {
+            if (data.size() == record.count + 1 && record.from < data.size() && data.get(record.from).equals(record.data.get(0)))
+                storage.removeData(entryName, record.from);
+            return;
+        }
+        int end = record.from + record.data.size();
+        if (data.size() >= end && data.subList(record.from, end).equals(record.data))
+            return;
+        if (data.size() == record.from) {
+            storage.appendData(entryName, record.data);
+        } else {
+            data = new ArrayList<>(data.subList(0, Math.min(record.from, data.size())));
+            data.addAll(record.data);
+            storage.writeData(entryName, data.toArray(new String[]{}));
         }
     }
 
     static String[] scan(String path) {
         File dir = new File(path);
         if (dir.list() == null)
-            throw new RuntimeException(path + " not found");
+            throw new DatabaseException(ErrorCode.DATABASE_NOT_FOUND, null, path + " not found");
 
         List<String> databases = new ArrayList<>();
         for (String entry : dir.list()) {
@@ -61,105 +195,287 @@ class FileManager {
         return databases.toArray(new String[]{});
     }
 
-    static FileManager read(String path, String databaseName) {
-        return new FileManager(true, path, databaseName);
+    static FileManager read(String path, String databaseName, DatabaseOptions options) {
+        return new FileManager(true, path, databaseName, options);
     }
 
-    static FileManager create(String path, String databaseName) {
-        return new FileManager(false, path, databaseName);
+    static FileManager create(String path, String databaseName, DatabaseOptions options) {
+        return new FileManager(false, path, databaseName, options);
+    }
+
+    /**
+     * Writes the record of a change to the log before the change is applied, so a change interrupted by a crash
+     * is replayed on the next connect. Waits until the record is in the log file, or on disk with
+     * {@link Durability#BATCH}. Returns {@code false} if the log could not be written, then the change must
+     * not be applied. Callers hold the checkpoint read lock.
+     * A change that then fails is still logged; replaying it brings the storage in line with the entries in memory,
+     * and replay skips changes that do not apply.
+     */
+    private boolean log(LogRecord record) {
+        byte[] encoded = record.encode();
+        Deque<byte[]> logged = batching.get();
+        // Written ahead with the other records of the batch
+        if (logged != null && Arrays.equals(logged.peek(), encoded)) {
+            logged.poll();
+            return true;
+        }
+        long start = metrics.start();
+        if (!await(append(record, encoded), record.name))
+            return false;
+        metrics.record(OperationType.LOG, start);
+        return true;
     }
 
-    synchronized void log(String line) {
+    private long append(LogRecord record, byte[] encoded) {
+        unsynced.add(record.name);
+        if (record.newName != null)
+            unsynced.add(record.newName);
+        metrics.bytesWritten.add(encoded.length);
+        return logWriter.append(encoded);
+    }
+
+    // Waits for the record according to the durability mode, returns false if the log could not be written
+    private boolean await(long sequence, String entryName) {
         try {
-            BufferedWriter logWriter = new BufferedWriter(new FileWriter(currentPath + dataFolderName + File.separator + "log.dat", true));
-            logWriter.append(line).append(System.lineSeparator());
-            logWriter.close();
+            if (logWriter.getDurability() == Durability.BATCH)
+                logWriter.awaitDurable(sequence);
+            else
+                logWriter.awaitWritten(sequence);
+            return true;
         } catch (IOException e) {
-            System.err.println("Log write error");
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Change not applied, log write error", e);
+            return false;
         }
     }
 
-    synchronized String[] getEntryNames() {
-        List<String> entries = new ArrayList<>();
+    /**
+     * Writes the log records of a batch together and waits for them once, before the batch is applied.
+     * The changes of the batch then find their records already logged, as long as they are applied in the
+     * same order; a change without a record written ahead is logged on its own. Holds the checkpoint read lock
+     * until {@link #endBatch()}, so no checkpoint drops the records before their changes are applied.
+     * Returns {@code false} if the log could not be written, then the batch must not be applied.
+     */
+    boolean beginBatch(List<LogRecord> records) {
+        checkpointLock.readLock().lock();
+        Deque<byte[]> logged = new ArrayDeque<>();
+        batching.set(logged);
+        if (records.isEmpty())
+            return true;
+        long start = metrics.start();
+        long sequence = 0;
+        for (LogRecord record : records) {
+            byte[] encoded = record.encode();
+            sequence = append(record, encoded);
+            logged.add(encoded);
+        }
+        if (!await(sequence, null)) {
+            logged.clear();
+            return false;
+        }
+        metrics.record(OperationType.LOG, start);
+        return true;
+    }
+
+    void endBatch() {
+        batching.remove();
+        checkpointLock.readLock().unlock();
+        maybeCheckpoint();
+    }
 
-        File rootFolder = new File(currentPath);
-        for (String entry : rootFolder.list()) {
-            if (new File(currentPath + entry).isDirectory() &&
-                    !entry.startsWith("."))
-                entries.add(entry);
+    private void maybeCheckpoint() {
+        if (logWriter.size() < CHECKPOINT_SIZE || batching.get() != null)
+            return;
+        checkpointLock.writeLock().lock();
+        try {
+            if (logWriter.size() >= CHECKPOINT_SIZE)
+                checkpoint();
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, null, "Checkpoint error", e);
+        } finally {
+            checkpointLock.writeLock().unlock();
         }
+    }
 
-        return entries.toArray(new String[]{});
+    /**
+     * Makes all logged changes durable in the storage and empties the log.
+     * Called on startup and with the checkpoint write lock held.
+     */
+    private void checkpoint() throws IOException {
+        List<String> names = new ArrayList<>(unsynced);
+        unsynced.removeAll(names);
+        storage.sync(names);
+        logWriter.checkpoint();
     }
 
-    synchronized Entry[] readEntries() {
-        List<Entry> entries = new ArrayList<>();
+    void setDurability(Durability durability, long interval) {
+        logWriter.setDurability(durability, interval);
+    }
 
-        File rootFolder = new File(currentPath);
-        for (String name : rootFolder.list()) {
-            if (name.equals(dataFolderName))
-                continue;
-            Entry entry = new Entry(name);
-            entry.uploadData(readData(name));
-            entry.localFiles.addAll(Arrays.asList(readFiles(entry)));
-            entries.add(entry);
+    void close() {
+        checkpointLock.writeLock().lock();
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, null, "Checkpoint error", e);
+        } finally {
+            checkpointLock.writeLock().unlock();
         }
+        logWriter.close();
+        storage.close();
+        if (blobs != null)
+            blobs.close();
+    }
 
+    String[] getEntryNames() {
+        return storage.names();
+    }
+
+    /**
+     * Reads all entries with their data and files. Entries are split into a few slices per processor,
+     * which are read in parallel on the executor. The returned array keeps the storage order.
+     */
+    Entry[] readEntries(Executor executor, DataLayout layout) {
+        String[] names = getEntryNames();
+        Entry[] entries = new Entry[names.length];
+        int slices = Math.min(names.length, Runtime.getRuntime().availableProcessors() * 4);
+        List<CompletableFuture<Void>> reads = new ArrayList<>(slices);
+        for (int slice = 0; slice < slices; slice++) {
+            int from = (int) ((long) names.length * slice / slices);
+            int to = (int) ((long) names.length * (slice + 1) / slices);
+            reads.add(CompletableFuture.runAsync(() -> {
+                for (int i = from; i < to; i++)
+                    entries[i] = readEntry(names[i], layout);
+            }, executor));
+        }
+        for (CompletableFuture<Void> read : reads)
+            read.join();
+        return entries;
+    }
+
+    private Entry readEntry(String entryName, DataLayout layout) {
+        String[] data = readData(entryName);
+        String[] files = readFiles(entryName);
+        return new Entry(entryName, data == null ? new String[]{} : data, files, layout);
+    }
+
+    Entry[] listEntries(DataCache cache, DataLayout layout) {
+        List<Entry> entries = new ArrayList<>();
+        for (String name : getEntryNames())
+            entries.add(new Entry(name, this, cache, layout));
         return entries.toArray(new Entry[]{});
     }
 
-    synchronized String[] readData(String entryName) {
-        String filepath = currentPath + entryName + File.separator + entryName + ".dat";
-        if (!new File(filepath).exists()) {
-            System.err.println("Dir/File " + entryName + " not found");
-            return null;
+    String[] readData(Entry entry) {
+        return readData(entry.name);
+    }
+
+    String[] readData(String entryName) {
+        return storage.readData(entryName);
+    }
+
+    String[] readData(String entryName, int from, int to) {
+        return storage.readData(entryName, from, to);
+    }
+
+    DataView viewData(Entry entry) {
+        return storage.viewData(entry.name);
+    }
+
+    boolean writeData(String entryName, String[] data) {
+        checkpointLock.readLock().lock();
+        try {
+            if (!log(LogRecord.write(entryName, Arrays.asList(data))))
+                return false;
+            long start = metrics.start();
+            boolean written = storage.writeData(entryName, data);
+            metrics.record(OperationType.WRITE_DATA, start);
+            return written;
+        } finally {
+            checkpointLock.readLock().unlock();
+            maybeCheckpoint();
         }
+    }
 
-        List<String> lines = new ArrayList<>();
+    boolean appendData(String entryName, int from, List<String> data) {
+        checkpointLock.readLock().lock();
         try {
-            BufferedReader reader = new BufferedReader(new FileReader(filepath));
-            String line;
-            while ((line = reader.readLine()) != null)
-                lines.add(line);
-            reader.close();
+            if (!log(LogRecord.append(entryName, from, data)))
+                return false;
+            long start = metrics.start();
+            boolean appended = storage.appendData(entryName, data);
+            metrics.record(OperationType.APPEND_DATA, start);
+            return appended;
+        } finally {
+            checkpointLock.readLock().unlock();
+            maybeCheckpoint();
+        }
+    }
+
+    boolean removeData(String entryName, int index, String line, int count) {
+        checkpointLock.readLock().lock();
+        try {
+            if (!log(LogRecord.remove(entryName, index, line, count)))
+                return false;
+            long start = metrics.start();
+            boolean removed = storage.removeData(entryName, index);
+            metrics.record(OperationType.REMOVE_DATA, start);
+            return removed;
+        } finally {
+            checkpointLock.readLock().unlock();
+            maybeCheckpoint();
+        }
+    }
+
+    long logSequence() {
+        return logWriter.sequence();
+    }
+
+    private File indexFile(String indexName) {
+        return new File(currentPath + dataFolderName + File.separator + "indexes" + File.separator + indexName + ".idx");
+    }
+
+    byte[] readIndex(String indexName) {
+        File file = indexFile(indexName);
+        if (!file.exists())
+            return null;
+        try {
+            return Files.readAllBytes(file.toPath());
         } catch (IOException e) {
-            System.err.println("Write error");
+            diagnostics.report(ErrorCode.IO_ERROR, null, "Index read error", e);
             return null;
         }
-        return lines.toArray(new String[]{});
     }
 
-    synchronized boolean writeData(String entryName, String[] data) {
-        String filepath = currentPath + entryName + File.separator + entryName + ".dat";
-        if (!new File(filepath).exists()) {
-            System.err.println("Dir/File " + entryName + " not found");
-            return false;
-        }
+    boolean writeIndex(String indexName, byte[] index) {
+        File file = indexFile(indexName);
+        file.getParentFile().mkdirs();
         try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter(filepath));
-            for (String line : data)
-                writer.write(line + System.lineSeparator());
-            writer.close();
+            Files.write(file.toPath(), index);
         } catch (IOException e) {
-            System.err.println("Write error");
+            diagnostics.report(ErrorCode.IO_ERROR, null, "Index write error", e);
             return false;
         }
-        log("edit data in '" + entryName + "'");
         return true;
     }
 
-    synchronized String[] readFiles(Entry entry) {
-        String path = currentPath + entry.name + File.separator;
+    void deleteIndex(String indexName) {
+        indexFile(indexName).delete();
+    }
+
+    String[] readFiles(Entry entry) {
+        return readFiles(entry.name);
+    }
+
+    String[] readFiles(String entryName) {
+        String path = currentPath + entryName + File.separator;
         List<String> files = new ArrayList<>();
         File folder = new File(path);
 
-        if (!folder.exists()) {
-            System.err.println("Dir " + entry.name + " not found");
-            return null;
-        }
+        if (!folder.exists())
+            return new String[]{};
 
         for (String file : folder.list()) {
-            if (new File(currentPath + entry.name + File.separator + file).isFile() &&
+            if (new File(path + file).isFile() &&
                     !file.endsWith(".dat"))
                 files.add(file);
         }
@@ -167,103 +483,235 @@ class FileManager {
         return files.toArray(new String[]{});
     }
 
-    synchronized boolean copyFile(Entry entry, String path) {
-        if (!new File(path).exists()) {
-            System.err.println("File not found in " + path);
+    boolean copyFile(Entry entry, String path) {
+        Path file = Paths.get(path);
+        if (!Files.isRegularFile(file)) {
+            diagnostics.report(ErrorCode.FILE_NOT_FOUND, entry.name, "File not found in " + path);
             return false;
         }
-        if (!new File(path).isFile()) {
-            System.err.println(path + " is not a file");
+
+        Path target = Paths.get(currentPath + entry.name, file.getFileName().toString());
+        long start = metrics.start();
+        try {
+            Files.createDirectories(target.getParent());
+            if (blobs != null) {
+                blobs.link(file, target);
+            } else if (!linkFiles || !link(file, target)) {
+                try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                     FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    transfer(in, out);
+                    metrics.bytesWritten.add(out.size());
+                } catch (FileAlreadyExistsException e) {
+                    throw e;
+                } catch (IOException e) {
+                    Files.deleteIfExists(target);
+                    throw e;
+                }
+            }
+        } catch (FileAlreadyExistsException e) {
+            diagnostics.report(ErrorCode.FILE_EXISTS, entry.name, "File " + file.getFileName() + " is in the entry " + entry.name);
+            return false;
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entry.name, "Copy error", e);
             return false;
         }
+        metrics.record(OperationType.COPY_FILE, start);
+        entry.addLocalFile(file.getFileName().toString());
+        entry.remoteFiles.remove(path);
+        return true;
+    }
 
-        Path file = Paths.get(path);
-        if (new File(currentPath + entry.name + File.separator + file.getFileName()).exists()) {
-            System.err.println("File " + file.getFileName() + " is in the entry " + entry.name);
+    // Hard-links the file, returns false if the file is on another file system or links are not supported
+    private static boolean link(Path file, Path target) throws IOException {
+        try {
+            Files.createLink(target, file);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
             return false;
         }
+    }
 
+    /**
+     * Copies the rest of the source into the file. A file source is transferred by the operating system
+     * without passing through a Java buffer.
+     */
+    private static void transfer(ReadableByteChannel source, FileChannel out) throws IOException {
+        if (source instanceof FileChannel) {
+            FileChannel in = (FileChannel) source;
+            long start = in.position();
+            long size = in.size();
+            transferFully(in, start, size - start, out);
+            in.position(size);
+        } else {
+            long position = 0;
+            long transferred;
+            while ((transferred = out.transferFrom(source, position, TRANSFER_SIZE)) > 0)
+                position += transferred;
+        }
+    }
+
+    /**
+     * Transfers {@code count} bytes of the file starting at {@code position} to the target. Returns {@code count}.
+     *
+     * @throws EOFException if the file ends before, for example because it was truncated meanwhile
+     * @throws IOException if the target accepts no more bytes
+     */
+    static long transferFully(FileChannel in, long position, long count, WritableByteChannel target) throws IOException {
+        for (long done = 0; done < count; ) {
+            long transferred = in.transferTo(position + done, count - done, target);
+            if (transferred <= 0) {
+                if (in.size() < position + count)
+                    throw new EOFException("File truncated during transfer");
+                throw new IOException("Transfer made no progress");
+            }
+            done += transferred;
+        }
+        return count;
+    }
+
+    /**
+     * Receives a file from the source into the import folder. Returns the received file, {@code null} on error.
+     * The file is not yet part of any entry, see {@link #attachFile}.
+     */
+    Path receiveFile(ReadableByteChannel source) {
+        Path received = null;
         try {
-            Files.copy(file, Paths.get(currentPath + entry.name + File.separator + file.getFileName()));
+            Path folder = Paths.get(currentPath + dataFolderName, "import");
+            Files.createDirectories(folder);
+            // Unlike Files.createTempFile, keeps the default permissions of new files
+            received = File.createTempFile("import", null, folder.toFile()).toPath();
+            try (FileChannel out = FileChannel.open(received, StandardOpenOption.WRITE)) {
+                transfer(source, out);
+                metrics.bytesWritten.add(out.size());
+            }
+            return received;
         } catch (IOException e) {
-            System.err.println("Copy error");
-            e.printStackTrace();
+            diagnostics.report(ErrorCode.IO_ERROR, null, "Import error", e);
+            if (received != null)
+                received.toFile().delete();
+            return null;
+        }
+    }
+
+    /**
+     * Moves a received file into the entry folder. Called with the entry monitor held,
+     * which every change of the entry folder holds.
+     */
+    boolean attachFile(Entry entry, Path received, String fileName) {
+        Path target = Paths.get(currentPath + entry.name, fileName);
+        // A removed file of the same name may still wait to be deleted
+        if (entry.removedFiles.remove(fileName))
+            deleteFile(entry.name, fileName);
+        if (Files.exists(target)) {
+            received.toFile().delete();
+            diagnostics.report(ErrorCode.FILE_EXISTS, entry.name, "File " + fileName + " is in the entry " + entry.name);
             return false;
         }
-        entry.localFiles.add(file.getFileName().toString());
-        entry.remoteFiles.remove(path);
-        log("file added to '" + entry.name + "' [" + path + "]");
+        try {
+            Files.createDirectories(target.getParent());
+            if (blobs != null)
+                blobs.attach(received, target);
+            else
+                Files.move(received, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            received.toFile().delete();
+            diagnostics.report(ErrorCode.IO_ERROR, entry.name, "Import error", e);
+            return false;
+        }
+        entry.addLocalFile(fileName);
         return true;
     }
 
-    synchronized boolean deleteFile(String entryName, String filename) {
+    /**
+     * Writes the file of the entry to the target. Returns the amount of written bytes, {@code -1} on error.
+     */
+    long exportFile(String entryName, String fileName, WritableByteChannel target) {
+        try (FileChannel in = FileChannel.open(Paths.get(currentPath + entryName, fileName), StandardOpenOption.READ)) {
+            long size = transferFully(in, 0, in.size(), target);
+            metrics.bytesRead.add(size);
+            return size;
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Export error", e);
+            return -1;
+        }
+    }
+
+    boolean deleteFile(String entryName, String filename) {
         if (!new File(currentPath + entryName + File.separator + filename).delete()) {
-            System.err.println("File delete error");
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "File delete error");
             return false;
         }
-        log("file delete from '" + entryName + "' [" + filename + "]");
+        if (blobs != null)
+            blobs.release(Paths.get(currentPath + entryName, filename));
         return true;
     }
 
-    synchronized boolean make(String entryName) {
-        File folder = new File(currentPath + entryName);
-        File file = new File(currentPath + entryName + File.separator + entryName + ".dat");
+    boolean make(String entryName) {
+        checkpointLock.readLock().lock();
+        try {
+            if (!log(LogRecord.make(entryName)))
+                return false;
+            return storage.make(entryName);
+        } finally {
+            checkpointLock.readLock().unlock();
+            maybeCheckpoint();
+        }
+    }
 
-        if (!folder.mkdir()) {
-            System.err.println("Directory " + entryName + " exists");
-            return false;
+    boolean delete(String entryName) {
+        checkpointLock.readLock().lock();
+        try {
+            if (!log(LogRecord.delete(entryName)))
+                return false;
+            return deleteEntry(entryName);
+        } finally {
+            checkpointLock.readLock().unlock();
+            maybeCheckpoint();
         }
+    }
+
+    boolean rename(Entry entry, String newName) {
+        String entryName = entry.name;
+        checkpointLock.readLock().lock();
         try {
-            if (!file.createNewFile()) {
-                System.err.println("File " + entryName + " exists");
+            if (!log(LogRecord.rename(entryName, newName)) || !renameEntry(entryName, newName))
                 return false;
-            }
-        } catch (IOException e) {
-            System.err.println("Make error");
-            e.printStackTrace();
-            return false;
+        } finally {
+            checkpointLock.readLock().unlock();
+            maybeCheckpoint();
         }
-        log("new entry '" + entryName + "'");
+        entry.setName(newName);
         return true;
     }
 
-    synchronized boolean delete(String entryName) {
+    private boolean deleteEntry(String entryName) {
+        if (!storage.delete(entryName))
+            return false;
+        // Paged storage keeps only uploaded files in the entry folder
         File folder = new File(currentPath + entryName);
-
         String[] files = folder.list();
         if (files != null) {
-            for (String file : files) {
+            for (String file : files)
                 new File(folder.getPath(), file).delete();
-            }
+            folder.delete();
         }
-        if (!folder.delete()) {
-            System.err.println("Directory " + entryName + " not found");
-            return false;
-        }
-        log("del entry '" + entryName + "'");
+        if (blobs != null)
+            blobs.releaseFolder(Paths.get(currentPath + entryName));
         return true;
     }
 
-    synchronized boolean rename(String entryName, String newName) {
-        File folder = new File(currentPath + entryName);
-        File file = new File(currentPath + entryName + File.separator + entryName + ".dat");
-
-        if (new File(currentPath + newName).exists()) {
-            System.err.println("Dir " + newName + " exists");
+    private boolean renameEntry(String entryName, String newName) {
+        if (!storage.rename(entryName, newName))
             return false;
-        }
-        if (!folder.exists() || !file.exists()) {
-            System.err.println("Dir/File " + entryName + " not found");
-            return false;
-        }
-
-        file = new File(currentPath + newName + File.separator + entryName + ".dat");
-        if (!folder.renameTo(new File(currentPath + newName)) ||
-                !file.renameTo(new File(currentPath + newName + File.separator + newName + ".dat"))) {
-            System.err.println("Rename error");
+        File folder = new File(currentPath + entryName);
+        if (folder.exists() && !folder.renameTo(new File(currentPath + newName))) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Rename error");
             return false;
         }
-        log("rename entry '" + entryName + "' -> '" + newName + "'");
+        if (blobs != null)
+            blobs.moveFolder(Paths.get(currentPath + entryName), Paths.get(currentPath + newName));
         return true;
     }
 }
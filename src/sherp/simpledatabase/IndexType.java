@@ -0,0 +1,15 @@
+package sherp.simpledatabase;
+
+/**
+ * Structure of a secondary index over entry data lines.
+ */
+public enum IndexType {
+    /**
+     * Hash index, answers exact key lookups.
+     */
+    HASH,
+    /**
+     * Sorted index, answers exact key, prefix and range lookups.
+     */
+    SORTED
+}
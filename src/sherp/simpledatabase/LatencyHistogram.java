@@ -0,0 +1,65 @@
+package sherp.simpledatabase;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Values below 128 are counted exactly, larger values
+ * in 64 buckets per power of two, so a recorded value is off by less than 1.6%. Values of more than
+ * about 36 minutes are counted as 36 minutes.
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_SHIFT = 34;
+    static final int BUCKETS = 2 * SUB_COUNT + MAX_SHIFT * SUB_COUNT;
+
+    private final AtomicLongArray counts;
+    private final LongAdder total;
+    private final LongAccumulator max;
+
+    LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        total = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+    }
+
+    void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    static int bucket(long value) {
+        if (value < 2 * SUB_COUNT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        if (shift > MAX_SHIFT)
+            return BUCKETS - 1;
+        return 2 * SUB_COUNT + (shift - 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+    }
+
+    /**
+     * Returns the highest value counted in the bucket.
+     */
+    static long highest(int bucket) {
+        if (bucket < 2 * SUB_COUNT)
+            return bucket;
+        int shift = (bucket - 2 * SUB_COUNT) / SUB_COUNT + 1;
+        long sub = (bucket - 2 * SUB_COUNT) % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    OperationStats stats() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        return new OperationStats(count, total.sum(), max.get(), snapshot);
+    }
+}
@@ -0,0 +1,178 @@
+package sherp.simpledatabase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Line offset index of a plain entry data file, kept in a file next to it. After a header holding the amount of
+ * indexed lines, the indexed length of the data file and an upper bound of removed lines, the file holds the
+ * start offset of every line of the data file. Removed lines stay in the data file and are marked in the index
+ * by storing their offset inverted, until the data file is rewritten without them.
+ * <p>
+ * Lines are appended to the data file before they are indexed, so after a crash the index can fall behind the
+ * data file. Lines past the indexed length are then indexed again on load.
+ */
+class LineIndex {
+    static final int MAGIC = 0x53444C01;
+    private static final int HEADER = 20;
+
+    // Amount of lines in the data file, including removed lines
+    final int lines;
+    // Length of the data file covered by the index
+    final long length;
+    // Removed lines, ascending
+    final int[] removed;
+
+    private LineIndex(int lines, long length, int[] removed) {
+        this.lines = lines;
+        this.length = length;
+        this.removed = removed;
+    }
+
+    /**
+     * Returns the amount of lines which are not removed.
+     */
+    int size() {
+        return lines - removed.length;
+    }
+
+    /**
+     * Returns the line of the data file holding the given line of the entry, which skips removed lines.
+     */
+    int physical(int line) {
+        int low = line;
+        int high = line + removed.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mid + 1 - removedUpTo(mid) > line)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return low;
+    }
+
+    // Returns the amount of removed lines up to the line of the data file, inclusive
+    private int removedUpTo(int line) {
+        int found = Arrays.binarySearch(removed, line);
+        return found >= 0 ? found + 1 : -found - 1;
+    }
+
+    boolean isRemoved(int line) {
+        return Arrays.binarySearch(removed, line) >= 0;
+    }
+
+    /**
+     * Reads the index file, returns {@code null} if it is not a complete index.
+     */
+    static LineIndex read(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER)
+            return null;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        readFully(channel, header, 0);
+        int lines = header.getInt(4);
+        long length = header.getLong(8);
+        int removedBound = header.getInt(16);
+        if (header.getInt(0) != MAGIC || lines < 0 || length < 0 || channel.size() < HEADER + 8L * lines)
+            return null;
+        if (removedBound == 0)
+            return new LineIndex(lines, length, new int[0]);
+
+        int[] removed = new int[Math.min(removedBound, lines)];
+        int count = 0;
+        ByteBuffer offsets = ByteBuffer.allocate(8 << 10);
+        for (int line = 0; line < lines; ) {
+            offsets.clear();
+            offsets.limit((int) Math.min(offsets.capacity(), 8L * (lines - line)));
+            readFully(channel, offsets, HEADER + 8L * line);
+            for (int i = 0; i < offsets.limit(); i += 8, line++) {
+                if (offsets.getLong(i) < 0 && count < removed.length)
+                    removed[count++] = line;
+            }
+        }
+        return new LineIndex(lines, length, Arrays.copyOf(removed, count));
+    }
+
+    /**
+     * Writes a new index of the data file from the start offsets of its lines.
+     */
+    static LineIndex write(FileChannel channel, long[] starts, long length) throws IOException {
+        LineIndex index = new LineIndex(0, 0, new int[0]).append(channel, starts, length);
+        channel.truncate(HEADER + 8L * starts.length);
+        return index;
+    }
+
+    /**
+     * Indexes lines appended to the data file, given their start offsets, and returns the longer index.
+     */
+    LineIndex append(FileChannel channel, long[] starts, long length) throws IOException {
+        ByteBuffer offsets = ByteBuffer.allocate(8 * starts.length);
+        for (long start : starts)
+            offsets.putLong(start);
+        offsets.flip();
+        writeFully(channel, offsets, HEADER + 8L * lines);
+        LineIndex index = new LineIndex(lines + starts.length, length, removed);
+        index.writeHeader(channel, removed.length);
+        return index;
+    }
+
+    /**
+     * Marks the given line of the entry as removed and returns the changed index.
+     */
+    LineIndex remove(FileChannel channel, int line) throws IOException {
+        int physical = physical(line);
+        // The header is written first, so it never counts fewer removed lines than are marked
+        writeHeader(channel, removed.length + 1);
+        ByteBuffer offset = ByteBuffer.allocate(8);
+        readFully(channel, offset, HEADER + 8L * physical);
+        offset.putLong(0, ~offset.getLong(0));
+        offset.clear();
+        writeFully(channel, offset, HEADER + 8L * physical);
+
+        int at = -Arrays.binarySearch(removed, physical) - 1;
+        int[] changed = new int[removed.length + 1];
+        System.arraycopy(removed, 0, changed, 0, at);
+        changed[at] = physical;
+        System.arraycopy(removed, at, changed, at + 1, removed.length - at);
+        return new LineIndex(lines, length, changed);
+    }
+
+    /**
+     * Returns the start offsets of the lines {@code from} (inclusive) to {@code to} (exclusive) of the data file,
+     * followed by the offset where line {@code to} starts.
+     */
+    long[] offsets(FileChannel channel, int from, int to) throws IOException {
+        int read = Math.min(to + 1, lines) - from;
+        ByteBuffer buffer = ByteBuffer.allocate(8 * read);
+        readFully(channel, buffer, HEADER + 8L * from);
+        long[] offsets = new long[to - from + 1];
+        for (int i = 0; i < read; i++) {
+            long offset = buffer.getLong(8 * i);
+            offsets[i] = offset < 0 ? ~offset : offset;
+        }
+        if (to == lines)
+            offsets[to - from] = length;
+        return offsets;
+    }
+
+    private void writeHeader(FileChannel channel, int removedBound) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(lines).putLong(length).putInt(removedBound);
+        header.flip();
+        writeFully(channel, header, 0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of file");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+    }
+}
@@ -0,0 +1,120 @@
+package sherp.simpledatabase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class LogRecord {
+    static final byte MAKE = 1;
+    static final byte DELETE = 2;
+    static final byte RENAME = 3;
+    static final byte WRITE = 4;
+    static final byte APPEND = 5;
+    static final byte REMOVE = 6;
+
+    final byte type;
+    final String name;
+    final String newName;
+    final int from;
+    final List<String> data;
+    // Amount of lines left by a removal
+    final int count;
+
+    private LogRecord(byte type, String name, String newName, int from, List<String> data) {
+        this(type, name, newName, from, data, 0);
+    }
+
+    private LogRecord(byte type, String name, String newName, int from, List<String> data, int count) {
+        this.type = type;
+        this.name = name;
+        this.newName = newName;
+        this.from = from;
+        this.data = data;
+        this.count = count;
+    }
+
+    static LogRecord make(String entryName) {
+        return new LogRecord(MAKE, entryName, null, 0, Collections.<String>emptyList());
+    }
+
+    static LogRecord delete(String entryName) {
+        return new LogRecord(DELETE, entryName, null, 0, Collections.<String>emptyList());
+    }
+
+    static LogRecord rename(String entryName, String newName) {
+        return new LogRecord(RENAME, entryName, newName, 0, Collections.<String>emptyList());
+    }
+
+    static LogRecord write(String entryName, List<String> data) {
+        return new LogRecord(WRITE, entryName, null, 0, data);
+    }
+
+    /**
+     * Lines appended to the entry, starting at line {@code from}. Knowing where the lines start
+     * makes the record safe to replay over data that already contains some or all of them.
+     */
+    static LogRecord append(String entryName, int from, List<String> data) {
+        return new LogRecord(APPEND, entryName, null, from, data);
+    }
+
+    /**
+     * Line {@code index} removed from the entry, leaving {@code count} lines. The removed line and the amount
+     * of lines left tell whether the removal is already in the data when the record is replayed.
+     */
+    static LogRecord remove(String entryName, int index, String line, int count) {
+        return new LogRecord(REMOVE, entryName, null, index, Collections.singletonList(line), count);
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            writeString(out, name);
+            writeString(out, newName == null ? "" : newName);
+            out.writeInt(from);
+            out.writeInt(data.size());
+            for (String line : data)
+                writeString(out, line);
+            if (type == REMOVE)
+                out.writeInt(count);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static LogRecord decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte type = in.readByte();
+        if (type < MAKE || type > REMOVE)
+            throw new IOException("Unknown log record type " + type);
+        String name = readString(in);
+        String newName = readString(in);
+        int from = in.readInt();
+        int size = in.readInt();
+        List<String> data = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            data.add(readString(in));
+        int count = type == REMOVE ? in.readInt() : 0;
+        return new LogRecord(type, name, newName, from, data, count);
+    }
+
+    static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
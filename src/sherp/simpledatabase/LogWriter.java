@@ -0,0 +1,330 @@
+package sherp.simpledatabase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Binary redo log of entry changes ({@code .sddata\wal.dat}). Every change is logged before it is applied.
+ * <p>
+ * The file starts with a header holding the sequence number of the last checkpoint, followed by records
+ * {@code [length][crc32][sequence][payload]}. Records are queued by callers and written in batches by a
+ * background thread (group commit); every batch is forced to disk according to the {@link Durability} mode.
+ * Reading stops at the first record with a bad length, checksum or sequence number, which drops a torn tail.
+ * <p>
+ * After a write or force error no more records are written, and waiting for any record not yet written
+ * or forced fails, so changes are not applied without their record. The database has to be connected again.
+ */
+class LogWriter implements Runnable {
+    private static final int MAGIC = 0x5344574C;
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int RECORD_HEADER = 16;
+    private static final Record CLOSE = new Record(0, null);
+
+    private final FileChannel channel;
+    private final BlockingQueue<Record> queue;
+    private final Thread thread;
+    private final Diagnostics diagnostics;
+    private volatile Durability durability;
+    private volatile long interval;
+    private volatile long size;
+    private long sequence;
+    private long writtenSequence;
+    private long durableSequence;
+    private boolean dirty;
+    private long lastForce;
+    // First write or force error, set by the writer thread
+    private IOException failure;
+
+    private static class Record {
+        final long sequence;
+        final byte[] payload;
+
+        Record(long sequence, byte[] payload) {
+            this.sequence = sequence;
+            this.payload = payload;
+        }
+    }
+
+    LogWriter(String filepath, Diagnostics diagnostics) throws IOException {
+        this(FileChannel.open(Paths.get(filepath),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE), diagnostics);
+    }
+
+    LogWriter(FileChannel channel, Diagnostics diagnostics) throws IOException {
+        this.diagnostics = diagnostics;
+        this.channel = channel;
+        queue = new LinkedBlockingQueue<>();
+        durability = Durability.NONE;
+        interval = 1000;
+        if (channel.size() < HEADER) {
+            writeHeader(0);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION)
+                throw new IOException("Not a database log file");
+            sequence = header.getLong();
+        }
+        writtenSequence = sequence;
+        durableSequence = sequence;
+        thread = new Thread(this, "SimpleDatabase log writer");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Reads all intact records written after the last checkpoint and cuts off anything after them.
+     * Must be called before {@link #start()}.
+     */
+    List<byte[]> recover() throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        long position = HEADER;
+        long end = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        while (position + RECORD_HEADER <= end) {
+            header.clear();
+            read(header, position);
+            header.flip();
+            int length = header.getInt();
+            long crc = header.getInt() & 0xFFFFFFFFL;
+            long recordSequence = header.getLong();
+            if (length < 0 || position + RECORD_HEADER + length > end || recordSequence != sequence + 1)
+                break;
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            read(payload, position + RECORD_HEADER);
+            if (checksum(recordSequence, payload.array()) != crc)
+                break;
+            records.add(payload.array());
+            sequence = recordSequence;
+            position += RECORD_HEADER + length;
+        }
+        channel.truncate(position);
+        size = position - HEADER;
+        writtenSequence = sequence;
+        durableSequence = sequence;
+        return records;
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void setDurability(Durability durability, long interval) {
+        if (interval <= 0)
+            throw new IllegalArgumentException("Interval must be positive");
+        this.interval = interval;
+        this.durability = durability;
+    }
+
+    Durability getDurability() {
+        return durability;
+    }
+
+    long size() {
+        return size;
+    }
+
+    synchronized long sequence() {
+        return sequence;
+    }
+
+    synchronized long append(byte[] payload) {
+        if (!thread.isAlive()) {
+            diagnostics.report(ErrorCode.CLOSED, null, "Log is closed");
+            return sequence;
+        }
+        queue.add(new Record(++sequence, payload));
+        return sequence;
+    }
+
+    /**
+     * Blocks until the record with the given sequence number is written to the log file, not necessarily to disk.
+     *
+     * @throws IOException if the log could not be written
+     */
+    synchronized void awaitWritten(long recordSequence) throws IOException {
+        while (writtenSequence < recordSequence && thread.isAlive()) {
+            if (failure != null)
+                throw new IOException("Log write failed", failure);
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Blocks until the record with the given sequence number is forced to disk.
+     *
+     * @throws IOException if the log could not be written or forced
+     */
+    synchronized void awaitDurable(long recordSequence) throws IOException {
+        while (durableSequence < recordSequence && thread.isAlive()) {
+            if (failure != null)
+                throw new IOException("Log write failed", failure);
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits for all queued records to be written, then empties the log. The caller must make sure
+     * no records are appended meanwhile and that the changes of all records are already durable.
+     */
+    void checkpoint() throws IOException {
+        long checkpoint;
+        synchronized (this) {
+            while (writtenSequence < sequence && thread.isAlive()) {
+                if (failure != null)
+                    throw new IOException("Log write failed", failure);
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            checkpoint = sequence;
+        }
+        channel.truncate(HEADER);
+        writeHeader(checkpoint);
+        channel.force(false);
+        size = 0;
+    }
+
+    void close() {
+        queue.add(CLOSE);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Record> batch = new ArrayList<>();
+        boolean closed = false;
+        while (!closed) {
+            try {
+                Record record = dirty ? queue.poll(interval, TimeUnit.MILLISECONDS) : queue.take();
+                if (record != null) {
+                    batch.add(record);
+                    queue.drainTo(batch);
+                }
+            } catch (InterruptedException e) {
+                batch.add(CLOSE);
+            }
+            closed = batch.remove(CLOSE);
+            try {
+                // Records after a failed write are dropped, so they are never acknowledged
+                if (failure == null) {
+                    write(batch);
+                    force(closed);
+                }
+            } catch (IOException e) {
+                diagnostics.report(ErrorCode.IO_ERROR, null, "Log write error", e);
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+            }
+            batch.clear();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, null, "Log close error", e);
+        }
+    }
+
+    private void write(List<Record> batch) throws IOException {
+        if (batch.isEmpty())
+            return;
+        int length = 0;
+        for (Record record : batch)
+            length += RECORD_HEADER + record.payload.length;
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (Record record : batch) {
+            buffer.putInt(record.payload.length);
+            buffer.putInt((int) checksum(record.sequence, record.payload));
+            buffer.putLong(record.sequence);
+            buffer.put(record.payload);
+        }
+        buffer.flip();
+        long position = HEADER + size;
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+        size += length;
+        dirty = true;
+        synchronized (this) {
+            writtenSequence = batch.get(batch.size() - 1).sequence;
+            notifyAll();
+        }
+    }
+
+    private void force(boolean closing) throws IOException {
+        if (!dirty)
+            return;
+        switch (durability) {
+            case NONE:
+                break;
+            case INTERVAL:
+                if (!closing && System.currentTimeMillis() - lastForce < interval)
+                    return;
+                channel.force(false);
+                break;
+            default:
+                channel.force(false);
+                break;
+        }
+        lastForce = System.currentTimeMillis();
+        dirty = false;
+        synchronized (this) {
+            durableSequence = writtenSequence;
+            notifyAll();
+        }
+    }
+
+    private void writeHeader(long checkpoint) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putLong(checkpoint);
+        header.flip();
+        while (header.hasRemaining())
+            channel.write(header, header.position());
+    }
+
+    private void read(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of log");
+        }
+    }
+
+    private static long checksum(long sequence, byte[] payload) {
+        CRC32 crc = new CRC32();
+        for (int i = 56; i >= 0; i -= 8)
+            crc.update((int) (sequence >>> i));
+        crc.update(payload, 0, payload.length);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,75 @@
+package sherp.simpledatabase;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one database. Byte counters are always kept,
+ * operations are only timed when metrics are enabled, see {@link DatabaseOptions#setMetrics(boolean)}.
+ */
+class Metrics {
+    private final boolean timed;
+    private final MetricsRegistry registry;
+    private final LatencyHistogram[] operations;
+    private final LatencyHistogram lockWait;
+    final LongAdder bytesWritten;
+    final LongAdder bytesRead;
+
+    Metrics(boolean timed, MetricsRegistry registry) {
+        this.timed = timed || registry != null;
+        this.registry = registry;
+        operations = new LatencyHistogram[OperationType.values().length];
+        if (this.timed) {
+            for (int i = 0; i < operations.length; i++)
+                operations[i] = new LatencyHistogram();
+            lockWait = new LatencyHistogram();
+        } else {
+            lockWait = null;
+        }
+        bytesWritten = new LongAdder();
+        bytesRead = new LongAdder();
+    }
+
+    /**
+     * Returns the start time of an operation, {@code 0} if operations are not timed.
+     */
+    long start() {
+        return timed ? System.nanoTime() : 0;
+    }
+
+    void record(OperationType operation, long start) {
+        if (!timed)
+            return;
+        long nanos = System.nanoTime() - start;
+        operations[operation.ordinal()].record(nanos);
+        if (registry != null)
+            registry.recordOperation(operation, nanos);
+    }
+
+    // Called right after the database lock was acquired by an operation started at the given time
+    void locked(long start) {
+        if (!timed)
+            return;
+        long nanos = System.nanoTime() - start;
+        lockWait.record(nanos);
+        if (registry != null)
+            registry.recordLockWait(nanos);
+    }
+
+    Map<OperationType, OperationStats> operationStats() {
+        Map<OperationType, OperationStats> stats = new EnumMap<>(OperationType.class);
+        for (OperationType operation : OperationType.values())
+            stats.put(operation, timed ? operations[operation.ordinal()].stats() : empty());
+        return Collections.unmodifiableMap(stats);
+    }
+
+    OperationStats lockWaitStats() {
+        return timed ? lockWait.stats() : empty();
+    }
+
+    private static OperationStats empty() {
+        return new OperationStats(0, 0, 0, new long[0]);
+    }
+}
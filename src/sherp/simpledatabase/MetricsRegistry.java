@@ -0,0 +1,23 @@
+package sherp.simpledatabase;
+
+/**
+ * Receives every measured operation of a database, to forward measurements to an external metrics library.
+ * Set with {@link DatabaseOptions#setMetricsRegistry(MetricsRegistry)}. Methods are called on the thread
+ * that performed the operation, so they should return quickly.
+ */
+public interface MetricsRegistry {
+    /**
+     * Called after an operation completed.
+     *
+     * @param operation type of the operation
+     * @param nanos time the operation took, in nanoseconds
+     */
+    void recordOperation(OperationType operation, long nanos);
+
+    /**
+     * Called after a thread acquired the database lock for a structural change.
+     *
+     * @param nanos time the thread waited for the lock, in nanoseconds
+     */
+    void recordLockWait(long nanos);
+}
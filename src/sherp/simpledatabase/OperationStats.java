@@ -0,0 +1,109 @@
+package sherp.simpledatabase;
+
+/**
+ * Snapshot of the latencies of one kind of operation. Times are in nanoseconds.
+ */
+public class OperationStats {
+    private final long count;
+    private final long totalTime;
+    private final long maxTime;
+    private final long[] counts;
+
+    OperationStats(long count, long totalTime, long maxTime, long[] counts) {
+        this.count = count;
+        this.totalTime = totalTime;
+        this.maxTime = maxTime;
+        this.counts = counts;
+    }
+
+    /**
+     * Returns the amount of measured operations.
+     *
+     * @return Amount of operations
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the time spent in all measured operations.
+     *
+     * @return Total time, in nanoseconds
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * Returns the average time of an operation.
+     *
+     * @return Mean time, in nanoseconds, {@code 0} if nothing was measured
+     */
+    public double getMeanTime() {
+        return count == 0 ? 0 : (double) totalTime / count;
+    }
+
+    /**
+     * Returns the time of the slowest operation.
+     *
+     * @return Maximum time, in nanoseconds
+     */
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * Returns the time the given share of operations took at most, within 1.6%.
+     *
+     * @param percentile percentile between {@code 0} and {@code 100}
+     * @return Time, in nanoseconds, {@code 0} if nothing was measured
+     * @throws IllegalArgumentException if the percentile is out of range
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile out of range");
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(LatencyHistogram.highest(i), maxTime);
+        }
+        return maxTime;
+    }
+
+    /**
+     * Returns the median time of an operation.
+     *
+     * @return Median time, in nanoseconds
+     */
+    public long getMedianTime() {
+        return getPercentile(50);
+    }
+
+    /**
+     * Returns the time 99% of operations took at most.
+     *
+     * @return 99th percentile, in nanoseconds
+     */
+    public long getP99Time() {
+        return getPercentile(99);
+    }
+
+    /**
+     * Returns the time 99.9% of operations took at most.
+     *
+     * @return 99.9th percentile, in nanoseconds
+     */
+    public long getP999Time() {
+        return getPercentile(99.9);
+    }
+
+    @Override
+    public String toString() {
+        return "Count: " + count + ", mean: " + Math.round(getMeanTime()) + "ns, median: " + getMedianTime() +
+                "ns, p99: " + getP99Time() + "ns, p99.9: " + getP999Time() + "ns, max: " + maxTime + "ns";
+    }
+}
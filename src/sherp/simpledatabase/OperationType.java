@@ -0,0 +1,43 @@
+package sherp.simpledatabase;
+
+/**
+ * Database operations whose latency is measured, see {@link Database#getMetrics()}.
+ */
+public enum OperationType {
+    /**
+     * Adding an entry to the database, including writing its data and copying its files.
+     */
+    ADD,
+    /**
+     * Looking up an entry by name.
+     */
+    GET,
+    /**
+     * Deleting an entry.
+     */
+    DELETE,
+    /**
+     * Renaming an entry.
+     */
+    RENAME,
+    /**
+     * Rewriting the data of an entry in the storage.
+     */
+    WRITE_DATA,
+    /**
+     * Appending lines to the data of an entry in the storage.
+     */
+    APPEND_DATA,
+    /**
+     * Removing one line from the data of an entry in the storage.
+     */
+    REMOVE_DATA,
+    /**
+     * Copying or linking an uploaded file into an entry.
+     */
+    COPY_FILE,
+    /**
+     * Appending a change to the log, including waiting for it to be forced to disk with {@link Durability#BATCH}.
+     */
+    LOG
+}
@@ -0,0 +1,459 @@
+package sherp.simpledatabase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the data of all entries in one file made of fixed size pages.
+ * <p>
+ * Page 0 is the file header. Every other page starts with the number of the next page in its chain
+ * and the amount of used payload bytes. Entry data is a chain of pages holding the lines as UTF-8 text.
+ * The directory chain holds one record per entry (state, first page, last page, name); deleted and
+ * renamed entries only mark their old record dead, and the directory is rewritten once dead records
+ * outweigh live ones. Released pages are linked into a free page list which is reused before the file grows.
+ * Rewritten data goes to new pages, and the old chain is freed only once the record points to the new one,
+ * so a rewrite interrupted by a crash leaves the old data in place for the log to replay.
+ */
+class PagedStorage extends Storage {
+    private static final int MAGIC = 0x53445047;
+    private static final int VERSION = 1;
+    private static final int PAGE_SIZE = 4096;
+    private static final int PAGE_HEADER = 8;
+    private static final int PAYLOAD = PAGE_SIZE - PAGE_HEADER;
+    private static final int RECORD_HEADER = 11;
+
+    private final FileChannel channel;
+    private final Map<String, Record> records;
+    private int pageCount;
+    private int freeHead;
+    private int directoryFirst;
+    private int directoryLast;
+    private long liveBytes;
+    private long deadBytes;
+
+    private static class Record {
+        final String name;
+        int first;
+        int last;
+        int page;
+        int offset;
+
+        Record(String name, int first, int last) {
+            this.name = name;
+            this.first = first;
+            this.last = last;
+        }
+
+        int size() {
+            return RECORD_HEADER + name.getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    PagedStorage(String filepath) throws IOException {
+        this(FileChannel.open(Paths.get(filepath),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+
+    PagedStorage(FileChannel channel) throws IOException {
+        this.channel = channel;
+        records = new LinkedHashMap<>();
+        if (channel.size() == 0) {
+            pageCount = 2;
+            freeHead = 0;
+            directoryFirst = 1;
+            directoryLast = 1;
+            writeHeader();
+            writePageHeader(1, 0, 0);
+        } else {
+            readHeader();
+            readDirectory();
+            if (deadBytes > liveBytes && deadBytes > PAYLOAD)
+                compact();
+        }
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer header = read(0, 28);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != PAGE_SIZE)
+            throw new IOException("Not a paged entry file");
+        pageCount = header.getInt();
+        freeHead = header.getInt();
+        directoryFirst = header.getInt();
+        directoryLast = header.getInt();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(28);
+        header.putInt(MAGIC).putInt(VERSION).putInt(PAGE_SIZE)
+                .putInt(pageCount).putInt(freeHead).putInt(directoryFirst).putInt(directoryLast);
+        header.flip();
+        write(0, header);
+    }
+
+    private void readDirectory() throws IOException {
+        int page = directoryFirst;
+        while (page != 0) {
+            ByteBuffer buffer = read((long) page * PAGE_SIZE, PAGE_SIZE);
+            int next = buffer.getInt();
+            int used = buffer.getInt();
+            while (buffer.position() < PAGE_HEADER + used) {
+                int offset = buffer.position();
+                boolean live = buffer.get() != 0;
+                int first = buffer.getInt();
+                int last = buffer.getInt();
+                byte[] name = new byte[buffer.getShort()];
+                buffer.get(name);
+                Record record = new Record(new String(name, StandardCharsets.UTF_8), first, last);
+                record.page = page;
+                record.offset = offset;
+                if (live) {
+                    records.put(record.name, record);
+                    liveBytes += RECORD_HEADER + name.length;
+                } else {
+                    deadBytes += RECORD_HEADER + name.length;
+                }
+            }
+            page = next;
+        }
+    }
+
+    private void compact() throws IOException {
+        int oldFirst = directoryFirst;
+        int oldLast = directoryLast;
+        int page = allocate();
+        writePageHeader(page, 0, 0);
+        directoryFirst = page;
+        directoryLast = page;
+        for (Record record : records.values())
+            appendRecord(record);
+        writeHeader();
+        freeChain(oldFirst, oldLast);
+        deadBytes = 0;
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                break;
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    private void write(long position, ByteBuffer buffer) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining())
+            channel.write(buffer, start + buffer.position());
+    }
+
+    private int readInt(int page, int offset) throws IOException {
+        return read((long) page * PAGE_SIZE + offset, 4).getInt();
+    }
+
+    private void writeInt(int page, int offset, int value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putInt(value).flip();
+        write((long) page * PAGE_SIZE + offset, buffer);
+    }
+
+    private void writePageHeader(int page, int next, int used) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_HEADER);
+        buffer.putInt(next).putInt(used).flip();
+        write((long) page * PAGE_SIZE, buffer);
+    }
+
+    private int allocate() throws IOException {
+        int page;
+        if (freeHead != 0) {
+            page = freeHead;
+            freeHead = readInt(page, 0);
+        } else {
+            page = pageCount++;
+        }
+        writeHeader();
+        return page;
+    }
+
+    private void freeChain(int first, int last) throws IOException {
+        writeInt(last, 0, freeHead);
+        freeHead = first;
+        writeHeader();
+    }
+
+    private int append(int last, byte[] bytes) throws IOException {
+        int used = readInt(last, 4);
+        int position = 0;
+        while (position < bytes.length) {
+            if (used == PAYLOAD) {
+                int page = allocate();
+                writePageHeader(page, 0, 0);
+                writeInt(last, 0, page);
+                last = page;
+                used = 0;
+            }
+            int length = Math.min(PAYLOAD - used, bytes.length - position);
+            write((long) last * PAGE_SIZE + PAGE_HEADER + used, ByteBuffer.wrap(bytes, position, length));
+            used += length;
+            position += length;
+            writeInt(last, 4, used);
+        }
+        return last;
+    }
+
+    private void appendRecord(Record record) throws IOException {
+        byte[] name = record.name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER + name.length);
+        buffer.put((byte) 1).putInt(record.first).putInt(record.last).putShort((short) name.length).put(name);
+        buffer.flip();
+
+        int used = readInt(directoryLast, 4);
+        if (PAYLOAD - used < buffer.remaining()) {
+            int page = allocate();
+            writePageHeader(page, 0, 0);
+            writeInt(directoryLast, 0, page);
+            directoryLast = page;
+            writeHeader();
+            used = 0;
+        }
+        record.page = directoryLast;
+        record.offset = PAGE_HEADER + used;
+        write((long) record.page * PAGE_SIZE + record.offset, buffer);
+        writeInt(directoryLast, 4, used + RECORD_HEADER + name.length);
+    }
+
+    private void markDead(Record record) throws IOException {
+        write((long) record.page * PAGE_SIZE + record.offset, ByteBuffer.wrap(new byte[]{0}));
+    }
+
+    private void updateLast(Record record, int last) throws IOException {
+        if (record.last == last)
+            return;
+        record.last = last;
+        writeInt(record.page, record.offset + 5, last);
+    }
+
+    private void updateChain(Record record, int first, int last) throws IOException {
+        record.first = first;
+        record.last = last;
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putInt(first).putInt(last).flip();
+        write((long) record.page * PAGE_SIZE + record.offset + 1, buffer);
+    }
+
+    private byte[] readChain(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int page = record.first;
+        while (page != 0) {
+            ByteBuffer buffer = read((long) page * PAGE_SIZE, PAGE_SIZE);
+            page = buffer.getInt();
+            int used = buffer.getInt();
+            bytes.write(buffer.array(), PAGE_HEADER, used);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encode(Iterable<String> data) {
+        StringBuilder str = new StringBuilder();
+        for (String line : data)
+            str.append(line).append('\n');
+        return str.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    synchronized String[] names() {
+        return records.keySet().toArray(new String[]{});
+    }
+
+    @Override
+    synchronized boolean exists(String entryName) {
+        return records.containsKey(entryName);
+    }
+
+    @Override
+    void sync(Collection<String> entryNames) throws IOException {
+        channel.force(true);
+    }
+
+    @Override
+    synchronized boolean make(String entryName) {
+        if (records.containsKey(entryName)) {
+            diagnostics.report(ErrorCode.ENTRY_EXISTS, entryName, "Entry " + entryName + " exists");
+            return false;
+        }
+        Record record = new Record(entryName, 0, 0);
+        if (record.size() > PAYLOAD) {
+            diagnostics.report(ErrorCode.INVALID_NAME, entryName, "Entry name " + entryName + " is too long");
+            return false;
+        }
+        try {
+            int page = allocate();
+            writePageHeader(page, 0, 0);
+            record.first = page;
+            record.last = page;
+            appendRecord(record);
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Make error", e);
+            return false;
+        }
+        records.put(entryName, record);
+        liveBytes += record.size();
+        return true;
+    }
+
+    @Override
+    synchronized boolean delete(String entryName) {
+        Record record = records.remove(entryName);
+        if (record == null) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Entry " + entryName + " not found");
+            return false;
+        }
+        try {
+            markDead(record);
+            freeChain(record.first, record.last);
+            liveBytes -= record.size();
+            deadBytes += record.size();
+            if (deadBytes > liveBytes && deadBytes > PAYLOAD)
+                compact();
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Delete error", e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    synchronized boolean rename(String entryName, String newName) {
+        if (records.containsKey(newName)) {
+            diagnostics.report(ErrorCode.ENTRY_EXISTS, newName, "Entry " + newName + " exists");
+            return false;
+        }
+        Record record = records.get(entryName);
+        if (record == null) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Entry " + entryName + " not found");
+            return false;
+        }
+        Record renamed = new Record(newName, record.first, record.last);
+        if (renamed.size() > PAYLOAD) {
+            diagnostics.report(ErrorCode.INVALID_NAME, newName, "Entry name " + newName + " is too long");
+            return false;
+        }
+        try {
+            appendRecord(renamed);
+            markDead(record);
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Rename error", e);
+            return false;
+        }
+        records.remove(entryName);
+        records.put(newName, renamed);
+        liveBytes += renamed.size() - record.size();
+        deadBytes += record.size();
+        return true;
+    }
+
+    @Override
+    synchronized String[] readData(String entryName) {
+        Record record = records.get(entryName);
+        if (record == null) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Entry " + entryName + " not found");
+            return null;
+        }
+        byte[] bytes;
+        try {
+            bytes = readChain(record);
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Read error", e);
+            return null;
+        }
+        metrics.bytesRead.add(bytes.length);
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            lines.add(text.substring(start, end));
+            start = end + 1;
+        }
+        return lines.toArray(new String[]{});
+    }
+
+    @Override
+    synchronized DataView viewData(String entryName) {
+        Record record = records.get(entryName);
+        if (record == null) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Entry " + entryName + " not found");
+            return null;
+        }
+        try {
+            byte[] bytes = readChain(record);
+            metrics.bytesRead.add(bytes.length);
+            return new DataView(ByteBuffer.wrap(bytes), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Read error", e);
+            return null;
+        }
+    }
+
+    @Override
+    synchronized boolean writeData(String entryName, String[] data) {
+        Record record = records.get(entryName);
+        if (record == null) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Entry " + entryName + " not found");
+            return false;
+        }
+        try {
+            int first = allocate();
+            writePageHeader(first, 0, 0);
+            byte[] bytes = encode(Arrays.asList(data));
+            int last = append(first, bytes);
+            int oldFirst = record.first;
+            int oldLast = record.last;
+            updateChain(record, first, last);
+            freeChain(oldFirst, oldLast);
+            metrics.bytesWritten.add(bytes.length);
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Write error", e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    synchronized boolean appendData(String entryName, List<String> data) {
+        Record record = records.get(entryName);
+        if (record == null) {
+            diagnostics.report(ErrorCode.ENTRY_NOT_FOUND, entryName, "Entry " + entryName + " not found");
+            return false;
+        }
+        try {
+            byte[] bytes = encode(data);
+            updateLast(record, append(record.last, bytes));
+            metrics.bytesWritten.add(bytes.length);
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Write error", e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            diagnostics.report(ErrorCode.IO_ERROR, null, "Paged storage close error", e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package sherp.simpledatabase;
+
+import java.util.Map;
+
+/**
+ * Read-only view of the database at one point in time, returned by {@link Database#snapshot()}.
+ * Changes made after the snapshot was taken are not visible through it, and writers are never blocked by it.
+ * Entry data replaced while the snapshot is open is kept in memory until the snapshot is closed.
+ */
+public class Snapshot implements AutoCloseable {
+    private final VersionClock clock;
+    private final long version;
+    // Entry name -> entry, in database order
+    private final Map<String, Entry> entries;
+    private volatile boolean closed;
+
+    Snapshot(VersionClock clock, long version, Map<String, Entry> entries) {
+        this.clock = clock;
+        this.version = version;
+        this.entries = entries;
+    }
+
+    /**
+     * Returns the database version the snapshot reads at.
+     *
+     * @return Snapshot version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the array of all the entry names at the time of the snapshot.
+     *
+     * @return Array of the entry names
+     */
+    public String[] getEntryNames() {
+        return entries.keySet().toArray(new String[]{});
+    }
+
+    /**
+     * Returns the amount of entries at the time of the snapshot.
+     *
+     * @return Amount of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns {@code true} ot {@code false} whether the entry was in the database at the time of the snapshot.
+     *
+     * @param entryName entry name
+     * @return {@code true} if entry is found, {@code false} if entry is not found
+     */
+    public boolean contains(String entryName) {
+        return entries.containsKey(entryName.trim());
+    }
+
+    /**
+     * Returns the data of the entry as it was at the time of the snapshot. Returns {@code null} if entry is not found.
+     *
+     * @param entryName entry name
+     * @return Array of data if found, {@code null} if entry is not found
+     * @throws IllegalStateException if the snapshot is closed
+     */
+    public String[] getData(String entryName) {
+        if (closed)
+            throw new IllegalStateException("Snapshot is closed");
+        entryName = entryName.trim();
+        Entry entry = entries.get(entryName);
+        if (entry == null)
+            return null;
+        return entry.getData(version);
+    }
+
+    /**
+     * Closes the snapshot, so that entry data replaced after it was taken can be released.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        clock.close(version);
+    }
+}
@@ -0,0 +1,48 @@
+package sherp.simpledatabase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+abstract class Storage {
+    // Byte counters and error channel of the database, set by the file manager
+    Metrics metrics;
+    Diagnostics diagnostics;
+
+    abstract String[] names();
+    abstract boolean exists(String entryName);
+    abstract boolean make(String entryName);
+    abstract boolean delete(String entryName);
+    abstract boolean rename(String entryName, String newName);
+    abstract String[] readData(String entryName);
+    abstract boolean writeData(String entryName, String[] data);
+    abstract boolean appendData(String entryName, List<String> data);
+    abstract DataView viewData(String entryName);
+    abstract void sync(Collection<String> entryNames) throws IOException;
+    abstract void close();
+
+    // Lines from (inclusive) to (exclusive) of the entry, fewer if the entry is shorter
+    String[] readData(String entryName, int from, int to) {
+        String[] data = readData(entryName);
+        if (data == null)
+            return null;
+        to = Math.min(to, data.length);
+        return from >= to ? new String[]{} : Arrays.copyOfRange(data, from, to);
+    }
+
+    // Removes one line of the entry by rewriting its data
+    boolean removeData(String entryName, int line) {
+        String[] data = readData(entryName);
+        if (data == null)
+            return false;
+        if (line < 0 || line >= data.length) {
+            diagnostics.report(ErrorCode.IO_ERROR, entryName, "Line " + line + " of " + entryName + " not found");
+            return false;
+        }
+        List<String> lines = new ArrayList<>(Arrays.asList(data));
+        lines.remove(line);
+        return writeData(entryName, lines.toArray(new String[]{}));
+    }
+}
@@ -0,0 +1,16 @@
+package sherp.simpledatabase;
+
+/**
+ * Layout used to store entry data on disk.
+ */
+public enum StorageType {
+    /**
+     * Every entry is a folder holding its {@code [Entry name].dat} data file and uploaded files.
+     */
+    DIRECTORY,
+    /**
+     * Entry data of all entries is kept in a single paged file ({@code .sddata\entries.db}).
+     * Entry folders are only created for entries with uploaded files.
+     */
+    PAGED
+}
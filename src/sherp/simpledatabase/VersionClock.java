@@ -0,0 +1,60 @@
+package sherp.simpledatabase;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version counter of a database. Every data change of an entry takes the next version,
+ * every snapshot reads at the current version and stays registered until it is closed,
+ * so writers know which replaced entry data still has to be kept.
+ * Writers only take the clock lock while a snapshot is open.
+ */
+class VersionClock {
+    private final AtomicLong version = new AtomicLong();
+    // Version of open snapshots -> amount of snapshots opened at that version
+    private final TreeMap<Long, Integer> open = new TreeMap<>();
+    // Amount of open snapshots, read by writers without the lock
+    private final AtomicInteger snapshots = new AtomicInteger();
+
+    long advance() {
+        return version.incrementAndGet();
+    }
+
+    synchronized long open() {
+        while (true) {
+            long at = version.get();
+            open.merge(at, 1, Integer::sum);
+            snapshots.incrementAndGet();
+            // A writer that took a newer version in between may have looked for snapshots before this one
+            // was registered and dropped data of this version, so register at the newer version instead
+            if (version.get() == at)
+                return at;
+            close(at);
+        }
+    }
+
+    synchronized void close(long snapshot) {
+        Integer count = open.get(snapshot);
+        if (count == null)
+            return;
+        if (count == 1)
+            open.remove(snapshot);
+        else
+            open.put(snapshot, count - 1);
+        snapshots.decrementAndGet();
+    }
+
+    /**
+     * Returns {@code true} if an open snapshot reads at a version between {@code from} (inclusive) and {@code to} (exclusive).
+     */
+    boolean visible(long from, long to) {
+        if (snapshots.get() == 0)
+            return false;
+        synchronized (this) {
+            Map.Entry<Long, Integer> snapshot = open.ceilingEntry(from);
+            return snapshot != null && snapshot.getKey() < to;
+        }
+    }
+}
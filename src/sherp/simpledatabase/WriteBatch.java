@@ -0,0 +1,143 @@
+package sherp.simpledatabase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Collects entry additions, deletions, renames and data uploads and applies them to the database at once.
+ * A batch is created with {@link Database#batch()}. Operations are applied in the order they were added,
+ * under a single database lock, and their log records are written together before they are applied,
+ * waiting for the log once per 256 operations.
+ */
+public class WriteBatch {
+    private final Database database;
+    final List<Operation> operations;
+
+    enum Type {
+        ADD, DELETE, RENAME, UPLOAD
+    }
+
+    static class Operation {
+        final Type type;
+        final Entry entry;
+        final String name;
+        final String newName;
+        final List<String> data;
+
+        Operation(Type type, Entry entry, String name, String newName, List<String> data) {
+            this.type = type;
+            this.entry = entry;
+            this.name = name;
+            this.newName = newName;
+            this.data = data;
+        }
+    }
+
+    WriteBatch(Database database) {
+        this.database = database;
+        operations = new ArrayList<>();
+    }
+
+    /**
+     * Adds the entry to the batch.
+     *
+     * @param entry Entry to be added
+     * @return this batch
+     */
+    public WriteBatch add(Entry entry) {
+        operations.add(new Operation(Type.ADD, entry, entry.name, null, null));
+        return this;
+    }
+
+    /**
+     * Creates a new entry with the set name and adds it to the batch.
+     *
+     * @param entryName Entry name to be created and added
+     * @return this batch
+     * @throws IllegalArgumentException if name is empty
+     */
+    public WriteBatch add(String entryName) {
+        return add(new Entry(entryName));
+    }
+
+    /**
+     * Adds the deletion of the entry to the batch.
+     *
+     * @param entryName Entry name to be deleted
+     * @return this batch
+     */
+    public WriteBatch delete(String entryName) {
+        operations.add(new Operation(Type.DELETE, null, entryName.trim(), null, null));
+        return this;
+    }
+
+    /**
+     * Adds the renaming of the entry to the batch.
+     *
+     * @param entryName name of the entry in the database
+     * @param newName new name to set the entry to
+     * @return this batch
+     * @throws IllegalArgumentException if the new name is empty
+     */
+    public WriteBatch rename(String entryName, String newName) {
+        newName = newName.trim();
+        if (newName.equals(""))
+            throw new IllegalArgumentException("Empty name");
+        operations.add(new Operation(Type.RENAME, null, entryName.trim(), newName, null));
+        return this;
+    }
+
+    /**
+     * Adds data lines to be appended to the entry. Consecutive uploads to the same entry are written as one append.
+     *
+     * @param entryName name of the entry in the database
+     * @param data array of data
+     * @return this batch
+     */
+    public WriteBatch uploadData(String entryName, String... data) {
+        return uploadData(entryName, Arrays.asList(data));
+    }
+
+    /**
+     * Adds data lines to be appended to the entry. Consecutive uploads to the same entry are written as one append.
+     *
+     * @param entryName name of the entry in the database
+     * @param data collection of data
+     * @return this batch
+     */
+    public WriteBatch uploadData(String entryName, Collection<String> data) {
+        entryName = entryName.trim();
+        if (!operations.isEmpty()) {
+            Operation last = operations.get(operations.size() - 1);
+            if (last.type == Type.UPLOAD && last.name.equals(entryName)) {
+                last.data.addAll(data);
+                return this;
+            }
+        }
+        operations.add(new Operation(Type.UPLOAD, null, entryName, null, new ArrayList<>(data)));
+        return this;
+    }
+
+    /**
+     * Returns the amount of operations in the batch.
+     *
+     * @return Amount of operations
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * Applies all operations to the database and clears the batch.
+     * Operations that fail (for example adding an existing entry) are skipped.
+     *
+     * @return Amount of operations applied successfully
+     */
+    public int commit() {
+        int applied = database.commit(this);
+        operations.clear();
+        return applied;
+    }
+}
@@ -0,0 +1,141 @@
+package sherp.simpledatabase;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+class WriteBehind implements Runnable {
+    private static final Entry CLOSE = new Entry("close");
+
+    private final Database database;
+    private final BlockingQueue<Entry> queue;
+    private final Map<Entry, Pending> pending;
+    private final Thread thread;
+    private long enqueued;
+    private long written;
+
+    private static class Pending {
+        final List<String> appended = new ArrayList<>();
+        // Keeps lazily loaded data reachable until it is written
+        List<String> data;
+        boolean rewrite;
+        boolean files;
+    }
+
+    WriteBehind(Database database) {
+        this.database = database;
+        queue = new LinkedBlockingQueue<>();
+        pending = new IdentityHashMap<>();
+        thread = new Thread(this, "SimpleDatabase write-behind");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private Pending pending(Entry entry) {
+        Pending p = pending.get(entry);
+        if (p == null) {
+            p = new Pending();
+            pending.put(entry, p);
+            enqueued++;
+            queue.add(entry);
+        }
+        return p;
+    }
+
+    synchronized void dataAppended(Entry entry, List<String> data) {
+        Pending p = pending(entry);
+        p.data = entry.data();
+        if (!p.rewrite)
+            p.appended.addAll(data);
+    }
+
+    synchronized boolean isPending(Entry entry) {
+        return pending.containsKey(entry);
+    }
+
+    synchronized void dataChanged(Entry entry) {
+        Pending p = pending(entry);
+        p.data = entry.data();
+        p.rewrite = true;
+        p.appended.clear();
+    }
+
+    synchronized void filesChanged(Entry entry) {
+        pending(entry).files = true;
+    }
+
+    synchronized void discard(Entry entry) {
+        pending.remove(entry);
+    }
+
+    synchronized void flush() {
+        long target = enqueued;
+        while (written < target && thread.isAlive()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    void close() {
+        queue.add(CLOSE);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (entry == CLOSE)
+                break;
+            try {
+                write(entry);
+            } catch (RuntimeException e) {
+                database.diagnostics.report(ErrorCode.INTERNAL_ERROR, entry.name, "Write-behind error in entry " + entry.name, e);
+            }
+            synchronized (this) {
+                written++;
+                notifyAll();
+            }
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes the pending changes of the entry. Called by the background thread, and before the stored data
+     * of the entry is read directly.
+     */
+    void write(Entry entry) {
+        synchronized (entry) {
+            Pending p;
+            synchronized (this) {
+                p = pending.remove(entry);
+            }
+            if (p == null)
+                return;
+            if (p.rewrite)
+                database.writeData(entry);
+            else if (!p.appended.isEmpty())
+                database.fileManager.appendData(entry.name, entry.dataCount() - p.appended.size(), p.appended);
+            if (p.files)
+                database.writeFiles(entry);
+        }
+    }
+}
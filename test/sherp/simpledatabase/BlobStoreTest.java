@@ -0,0 +1,78 @@
+package sherp.simpledatabase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Deduplicated entry files: blob references across deletes, renames and reopening the database.
+ */
+class BlobStoreTest {
+    @TempDir
+    Path folder;
+
+    private Database connect() {
+        return Database.connect(folder.toString(), "db", new DatabaseOptions().setDeduplicateFiles(true));
+    }
+
+    private List<Path> blobs() throws IOException {
+        try (Stream<Path> files = Files.walk(folder.resolve("db").resolve(".sddata").resolve("blobs"))) {
+            return files.filter(file -> file.getFileName().toString().length() == 64).collect(Collectors.toList());
+        }
+    }
+
+    // The collector runs in the background, so the blob count is waited for
+    private void assertBlobs(int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (blobs().size() != expected && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertEquals(expected, blobs().size());
+    }
+
+    @Test
+    void blobsAreKeptWhileAnyEntryFileIsLinkedToThem() throws Exception {
+        Path source = folder.resolve("source.txt");
+        Files.write(source, "content".getBytes(StandardCharsets.UTF_8));
+        Path other = folder.resolve("other.txt");
+        Files.write(other, "other content".getBytes(StandardCharsets.UTF_8));
+        Database.create("db", folder.toString()).close();
+
+        Database database = connect();
+        for (String name : new String[]{"a", "b", "c", "d"}) {
+            database.add(name);
+            database.get(name).uploadFile(source.toString());
+        }
+        database.get("a").uploadFile(other.toString());
+        assertBlobs(2);
+
+        database.delete("a");
+        assertBlobs(1);
+        assertTrue(Files.isSameFile(blobs().get(0), folder.resolve("db").resolve("b").resolve("source.txt")));
+        database.rename("b", "e");
+        database.get("c").removeFile(0);
+        database.close();
+
+        database = connect();
+        assertBlobs(1);
+        assertEquals("content", new String(Files.readAllBytes(folder.resolve("db").resolve("e").resolve("source.txt")),
+                StandardCharsets.UTF_8));
+        database.delete("e");
+        database.close();
+        // The last linked file disappears while the database is closed
+        Files.delete(folder.resolve("db").resolve("d").resolve("source.txt"));
+
+        database = connect();
+        assertBlobs(0);
+        database.close();
+    }
+}
@@ -0,0 +1,105 @@
+package sherp.simpledatabase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compressed data files: lines written, appended and merged, read back in full and by block, and torn blocks.
+ */
+class BlockFileTest {
+    @TempDir
+    Path folder;
+
+    private FileChannel channel() throws IOException {
+        return FileChannel.open(folder.resolve("e.sdz"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static List<String> lines(String prefix, int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            lines.add(prefix + i + " äöü 日本語 " + String.join("", Collections.nCopies(i % 50, "x")));
+        return lines;
+    }
+
+    private static List<String> readAll(FileChannel channel, BlockFile.Index index) throws IOException {
+        return BlockFile.lines(BlockFile.read(channel, index, 0, index.blocks()));
+    }
+
+    @Test
+    void linesRoundTripThroughWritesAndAppends() throws IOException {
+        List<String> expected = new ArrayList<>(lines("w", 5000));
+        expected.add("");
+        try (FileChannel channel = channel()) {
+            BlockFile.Index index = BlockFile.write(channel, expected);
+            assertTrue(index.blocks() > 1);
+            assertEquals(expected, readAll(channel, index));
+
+            // Enough single line appends to merge the small blocks at the end
+            for (int i = 0; i < 100; i++) {
+                List<String> appended = lines("a" + i + "-", 1 + i % 3);
+                index = BlockFile.append(channel, index, appended);
+                expected.addAll(appended);
+            }
+            assertEquals(expected.size(), index.lines());
+            assertEquals(expected, readAll(channel, index));
+            assertTrue(index.unused > 0);
+        }
+
+        try (FileChannel channel = channel()) {
+            BlockFile.Index index = BlockFile.index(channel);
+            assertEquals(expected, readAll(channel, index));
+            // Reading only the block holding a line
+            int line = 4321;
+            int block = index.block(line);
+            List<String> lines = BlockFile.lines(BlockFile.read(channel, index, block, block + 1));
+            assertEquals(expected.get(line), lines.get(line - index.firstLines[block]));
+
+            index = BlockFile.write(channel, lines("r", 10));
+            assertEquals(1, index.blocks());
+            assertEquals(lines("r", 10), readAll(channel, BlockFile.index(channel)));
+        }
+    }
+
+    @Test
+    void tornOrDamagedLastBlockIsDropped() throws IOException {
+        List<String> written = lines("w", 100);
+        try (FileChannel channel = channel()) {
+            BlockFile.Index index = BlockFile.write(channel, written);
+            long end = index.end;
+            index = BlockFile.append(channel, index, lines("a", 10));
+
+            channel.truncate(index.end - 3);
+            BlockFile.Index torn = BlockFile.index(channel);
+            assertEquals(written, readAll(channel, torn));
+            assertEquals(end, torn.end);
+
+            index = BlockFile.append(channel, torn, lines("b", 10));
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, index.end - 1);
+            last.put(0, (byte) ~last.get(0));
+            last.rewind();
+            channel.write(last, index.end - 1);
+            BlockFile.Index damaged = BlockFile.index(channel);
+            assertEquals(written, readAll(channel, damaged));
+
+            List<String> expected = new ArrayList<>(written);
+            expected.addAll(lines("c", 5));
+            index = BlockFile.append(channel, damaged, lines("c", 5));
+            assertEquals(expected.size(), index.lines());
+            assertEquals(expected, readAll(channel, BlockFile.index(channel)));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package sherp.simpledatabase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Change subscriptions: delivery on demand, and a subscriber that falls behind failing instead of blocking writers.
+ */
+class ChangeFeedTest {
+    @TempDir
+    Path folder;
+
+    // Runs the delivery tasks of the subscriptions when asked to
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    private void deliver() {
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+            task.run();
+    }
+
+    private static class Recorder implements ChangeSubscriber {
+        final List<ChangeEvent> events = new ArrayList<>();
+        final long initial;
+        ChangeSubscription subscription;
+        Throwable error;
+        boolean completed;
+
+        Recorder(long initial) {
+            this.initial = initial;
+        }
+
+        @Override
+        public void onSubscribe(ChangeSubscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initial);
+        }
+
+        @Override
+        public void onNext(ChangeEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    void subscriberFallingBehindFailsWithAnError() {
+        Database database = Database.create("db", folder.toString());
+        Recorder slow = new Recorder(2);
+        Recorder fast = new Recorder(Long.MAX_VALUE);
+        database.subscribe(slow, tasks::add, 3);
+        database.subscribe(fast, tasks::add, 3);
+        deliver();
+
+        database.add("a");
+        Entry entry = database.get("a");
+        entry.uploadData("x1");
+        deliver();
+        assertEquals(2, slow.events.size());
+        assertEquals(ChangeEvent.Type.DATA_APPENDED, slow.events.get(1).getType());
+
+        // Three more changes fit in the buffer of the slow subscriber, the fourth one does not
+        for (int i = 2; i <= 4; i++) {
+            entry.uploadData("x" + i);
+            deliver();
+        }
+        assertEquals(2, slow.events.size());
+        assertNull(slow.error);
+        entry.uploadData("x5");
+        entry.removeData(0);
+        deliver();
+        assertTrue(slow.error instanceof IllegalStateException);
+
+        // Requests after the failure deliver nothing
+        slow.subscription.request(10);
+        deliver();
+        assertEquals(2, slow.events.size());
+        assertEquals(7, fast.events.size());
+        assertEquals(ChangeEvent.Type.DATA_REMOVED, fast.events.get(6).getType());
+
+        database.close();
+        deliver();
+        assertFalse(slow.completed);
+        assertTrue(fast.completed);
+    }
+}
@@ -0,0 +1,50 @@
+package sherp.simpledatabase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Data indexes kept up to date by single line changes.
+ */
+class DataIndexTest {
+    @TempDir
+    Path folder;
+
+    private static String[] names(Entry[] entries) {
+        String[] names = new String[entries.length];
+        for (int i = 0; i < entries.length; i++)
+            names[i] = entries[i].getName();
+        return names;
+    }
+
+    @Test
+    void removedLinesDropOnlyTheirOwnKeys() {
+        Database database = Database.create("db", folder.toString());
+        DataIndex index = database.createIndex("first", IndexType.SORTED, line -> line.isEmpty() ? null : line.substring(0, 1));
+        database.add("a");
+        database.add("b");
+        Entry a = database.get("a");
+        a.uploadData("x1", "x2", "y1", "", "z1");
+        database.get("b").uploadData("x3");
+
+        a.removeData(0);
+        assertArrayEquals(new String[]{"a", "b"}, names(index.find("x")));
+        a.removeData(2);
+        a.removeData(0);
+        assertArrayEquals(new String[]{"b"}, names(index.find("x")));
+        assertArrayEquals(new String[]{"a", "b"}, names(index.findRange("x", "zz")));
+        a.removeData(0);
+        a.removeData(0);
+        assertArrayEquals(new String[]{}, names(index.findPrefix("y")));
+        assertArrayEquals(new String[]{}, names(index.find("z")));
+        assertArrayEquals(new String[]{}, a.getData());
+
+        a.uploadData("z2");
+        assertArrayEquals(new String[]{"a"}, names(index.find("z")));
+        database.close();
+    }
+}
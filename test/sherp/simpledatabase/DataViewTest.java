@@ -0,0 +1,69 @@
+package sherp.simpledatabase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Data views and reads of stored entry data: pending asynchronous writes and UTF-8 lines.
+ */
+class DataViewTest {
+    private static final String[] LINES = {"plain", "äöü ß", "日本語", "emoji 😀"};
+
+    @TempDir
+    Path folder;
+
+    private static String[] strings(DataView view) {
+        String[] lines = new String[view.size()];
+        for (int i = 0; i < lines.length; i++)
+            lines[i] = view.getString(i);
+        return lines;
+    }
+
+    @Test
+    void viewIncludesChangesWaitingToBeWritten() {
+        Database database = Database.create("db", folder.toString(), new DatabaseOptions().setAsyncWrites(true));
+        database.add("e");
+        Entry entry = database.get("e");
+        for (int i = 0; i < 100; i++) {
+            entry.uploadData("l" + i);
+            assertEquals("l" + i, entry.getDataView().getString(i));
+        }
+        entry.removeData(0);
+        assertArrayEquals(entry.getData(), strings(entry.getDataView()));
+        database.close();
+    }
+
+    @Test
+    void linesAreStoredAsUtf8() throws Exception {
+        DatabaseOptions[] options = {
+                new DatabaseOptions(),
+                new DatabaseOptions().setMemoryMapped(true),
+                new DatabaseOptions().setCompressedData(true),
+                new DatabaseOptions().setStorageType(StorageType.PAGED)
+        };
+        for (int i = 0; i < options.length; i++) {
+            String name = "db" + i;
+            Database database = Database.create(name, folder.toString(), options[i]);
+            database.add("e");
+            database.get("e").uploadData(LINES);
+            database.close();
+
+            database = Database.connect(folder.toString(), name, options[i].setLazy(true));
+            Entry entry = database.get("e");
+            assertArrayEquals(Arrays.copyOfRange(LINES, 1, 3), entry.getData(1, 3), name);
+            assertArrayEquals(LINES, strings(entry.getDataView()), name);
+            assertArrayEquals(LINES, entry.getData(), name);
+            database.close();
+        }
+        byte[] stored = Files.readAllBytes(folder.resolve("db0").resolve("e").resolve("e.dat"));
+        assertEquals(Arrays.asList(LINES), Arrays.asList(new String(stored, StandardCharsets.UTF_8).split("\r?\n")));
+    }
+}
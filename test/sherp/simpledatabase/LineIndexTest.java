@@ -0,0 +1,209 @@
+package sherp.simpledatabase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Line index of plain entry data files: removed lines, range reads and recovery of the index files after a crash.
+ */
+class LineIndexTest {
+    @TempDir
+    Path folder;
+
+    private Path file(String entryName, String suffix) {
+        return folder.resolve("db").resolve(entryName).resolve(entryName + suffix);
+    }
+
+    private Database connect(boolean lazy) {
+        return Database.connect(folder.toString(), "db", new DatabaseOptions().setLazy(lazy));
+    }
+
+    @Test
+    void removedLinesStayInTheDataFileAndAreSkipped() throws IOException {
+        Database database = Database.create("db", folder.toString());
+        database.add("e");
+        Entry entry = database.get("e");
+        entry.uploadData("a", "b", "c", "d", "f");
+        assertTrue(entry.removeData(1));
+        assertTrue(entry.removeData(2));
+        String[] expected = {"a", "c", "f"};
+        assertArrayEquals(expected, entry.getData());
+        database.close();
+
+        assertEquals(5, Files.readAllLines(file("e", ".dat")).size());
+        for (boolean lazy : new boolean[]{false, true}) {
+            database = connect(lazy);
+            entry = database.get("e");
+            assertArrayEquals(expected, entry.getData());
+            assertArrayEquals(new String[]{"c", "f"}, entry.getData(1, 10));
+            assertEquals(3, entry.dataCount());
+            database.close();
+        }
+    }
+
+    @Test
+    void carriageReturnsInsideLinesAreKept() {
+        Database database = Database.create("db", folder.toString());
+        database.add("e");
+        Entry entry = database.get("e");
+        entry.uploadData("a", "b\rc", "d", "f");
+        entry.removeData(2);
+        database.close();
+
+        String[] expected = {"a", "b\rc", "f"};
+        for (boolean lazy : new boolean[]{false, true}) {
+            database = connect(lazy);
+            entry = database.get("e");
+            assertArrayEquals(expected, entry.getData(0, 10));
+            assertArrayEquals(expected, entry.getData());
+            database.close();
+        }
+    }
+
+    @Test
+    void dataFileIsRewrittenOnceRemovedLinesOutnumberTheOthers() throws IOException {
+        Database database = Database.create("db", folder.toString());
+        database.add("e");
+        Entry entry = database.get("e");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            lines.add("l" + i);
+            entry.uploadData("l" + i);
+        }
+        for (int i = 0; i < 200; i++) {
+            entry.removeData(0);
+            lines.remove(0);
+        }
+        database.close();
+
+        assertTrue(Files.readAllLines(file("e", ".dat")).size() < 300);
+        database = connect(true);
+        assertArrayEquals(lines.toArray(new String[]{}), database.get("e").getData());
+        assertArrayEquals(new String[]{"l298", "l299"}, database.get("e").getData(98, 200));
+        database.close();
+    }
+
+    @Test
+    void linesAppendedPastTheIndexAreIndexed() throws IOException {
+        Database database = Database.create("db", folder.toString());
+        database.add("e");
+        database.get("e").uploadData("a", "b", "c");
+        database.get("e").removeData(0);
+        database.close();
+        // The data file is appended before its index, a crash in between leaves the index behind
+        Files.write(file("e", ".dat"), ("d" + System.lineSeparator()).getBytes(), StandardOpenOption.APPEND);
+
+        database = connect(true);
+        assertArrayEquals(new String[]{"b", "c", "d"}, database.get("e").getData(0, 10));
+        assertArrayEquals(new String[]{"b", "c", "d"}, database.get("e").getData());
+        database.close();
+    }
+
+    @Test
+    void rewriteInterruptedBeforeMovingTheDataFileIsDiscarded() throws IOException {
+        Database database = Database.create("db", folder.toString());
+        database.add("e");
+        database.get("e").uploadData("a", "b", "c");
+        database.get("e").removeData(1);
+        database.close();
+        Files.write(file("e", ".new.dat"), "partial".getBytes());
+        Files.write(file("e", ".lines.new.dat"), new byte[]{1, 2, 3});
+
+        database = connect(true);
+        assertArrayEquals(new String[]{"a", "c"}, database.get("e").getData(0, 10));
+        assertArrayEquals(new String[]{"a", "c"}, database.get("e").getData());
+        assertFalse(Files.exists(file("e", ".lines.new.dat")));
+        database.close();
+    }
+
+    @Test
+    void rewriteInterruptedAfterMovingTheDataFileIsCompleted() throws IOException {
+        Database database = Database.create("db", folder.toString());
+        database.add("e");
+        database.get("e").uploadData("a", "b", "c");
+        database.get("e").removeData(1);
+        database.close();
+        // The new index is written next to the new data file and moved in place after it
+        Files.copy(file("e", ".lines.dat"), file("e", ".lines.new.dat"));
+        Files.write(file("e", ".lines.dat"), new byte[]{1, 2, 3});
+
+        database = connect(true);
+        assertArrayEquals(new String[]{"a", "c"}, database.get("e").getData(0, 10));
+        assertArrayEquals(new String[]{"a", "c"}, database.get("e").getData());
+        assertFalse(Files.exists(file("e", ".lines.new.dat")));
+        database.close();
+    }
+
+    @Test
+    void damagedIndexIsBuiltAgain() throws IOException {
+        Database database = Database.create("db", folder.toString());
+        database.add("e");
+        database.get("e").uploadData("a", "b", "c");
+        database.close();
+        Files.write(file("e", ".lines.dat"), new byte[]{1, 2, 3});
+
+        database = Database.connect(folder.toString(), "db", new DatabaseOptions().setLazy(true).setErrorHandler(error -> {
+        }));
+        assertArrayEquals(new String[]{"b", "c"}, database.get("e").getData(1, 10));
+        assertTrue(Files.size(file("e", ".lines.dat")) > 3);
+        database.close();
+    }
+
+    @Test
+    void removalsAreReplayedAfterACrash() throws Exception {
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), CrashingWriter.class.getName(), folder.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(folder.resolve("writer.log").toFile())
+                .start();
+        assertEquals(0, process.waitFor());
+        // Data and index files as they were before the logged removals reached them
+        Files.copy(folder.resolve("e.dat"), file("e", ".dat"), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(folder.resolve("e.lines.dat"), file("e", ".lines.dat"), StandardCopyOption.REPLACE_EXISTING);
+
+        Database database = connect(false);
+        String[] expected = {"l1", "l2", "l4", "l5", "l6", "l7", "l8", "l9", "z"};
+        assertArrayEquals(expected, database.get("e").getData());
+        database.close();
+        database = connect(true);
+        assertArrayEquals(expected, database.get("e").getData(0, 100));
+        database.close();
+    }
+
+    /**
+     * Writes lines, keeps a copy of the data and index files, removes lines and stops without closing the database.
+     */
+    static class CrashingWriter {
+        public static void main(String[] args) throws IOException {
+            Path folder = Paths.get(args[0]);
+            Database database = Database.create("db", folder.toString());
+            database.setDurability(Durability.BATCH);
+            database.add("e");
+            Entry entry = database.get("e");
+            for (int i = 0; i < 10; i++)
+                entry.uploadData("l" + i);
+            Path data = folder.resolve("db").resolve("e");
+            Files.copy(data.resolve("e.dat"), folder.resolve("e.dat"));
+            Files.copy(data.resolve("e.lines.dat"), folder.resolve("e.lines.dat"));
+            entry.removeData(3);
+            entry.removeData(0);
+            entry.uploadData("z");
+            Runtime.getRuntime().halt(new File(data.toFile(), "e.lines.dat").exists() ? 0 : 1);
+        }
+    }
+}
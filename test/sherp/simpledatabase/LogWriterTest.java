@@ -0,0 +1,192 @@
+package sherp.simpledatabase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Write-ahead log: torn records, write errors and replay of logged changes after a crash.
+ */
+class LogWriterTest {
+    private static final Diagnostics SILENT = new Diagnostics(error -> {
+    }, 100);
+
+    @TempDir
+    Path folder;
+
+    private FileChannel channel() throws IOException {
+        return FileChannel.open(folder.resolve("wal.dat"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void tornTailIsDropped() throws IOException {
+        LogWriter log = new LogWriter(channel(), SILENT);
+        log.recover();
+        log.start();
+        for (String record : new String[]{"a", "b", "c"})
+            log.awaitWritten(log.append(bytes(record)));
+        log.close();
+        Files.write(folder.resolve("wal.dat"), new byte[]{0, 0, 0, 9, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        log = new LogWriter(channel(), SILENT);
+        List<byte[]> records = log.recover();
+        assertEquals(3, records.size());
+        assertArrayEquals(bytes("c"), records.get(2));
+        log.start();
+        assertEquals(4, log.append(bytes("d")));
+        log.close();
+    }
+
+    @Test
+    void writeErrorFailsWaitersInsteadOfBlocking() throws IOException {
+        // The header and the cut after recovery are written, then the first batch of records
+        LogWriter log = new LogWriter(new StoppingChannel(channel(), 3), SILENT);
+        log.recover();
+        log.start();
+        log.awaitWritten(log.append(bytes("a")));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            long failed = log.append(bytes("b"));
+            assertThrows(IOException.class, () -> log.awaitWritten(failed));
+            // Later records are not written either, so the failed one is never acknowledged
+            long later = log.append(bytes("c"));
+            assertThrows(IOException.class, () -> log.awaitWritten(later));
+            assertThrows(IOException.class, () -> log.awaitDurable(failed));
+            assertThrows(IOException.class, log::checkpoint);
+            log.close();
+        });
+
+        LogWriter reopened = new LogWriter(channel(), SILENT);
+        List<byte[]> records = reopened.recover();
+        assertEquals(1, records.size());
+        assertArrayEquals(bytes("a"), records.get(0));
+        reopened.close();
+    }
+
+    @Test
+    void changesAreReplayedAfterACrash() throws Exception {
+        for (StorageType type : StorageType.values()) {
+            Path root = folder.resolve(type.name());
+            Files.createDirectories(root);
+            Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), CrashingWriter.class.getName(), root.toString(), type.name())
+                    .redirectErrorStream(true)
+                    .redirectOutput(root.resolve("writer.log").toFile())
+                    .start();
+            assertEquals(0, process.waitFor(), type.name());
+            // Storage as it was before the logged changes reached it
+            Path database = root.resolve("db");
+            try (Stream<Path> files = Files.list(database)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (!file.getFileName().toString().startsWith("."))
+                        delete(file);
+                }
+            }
+            copy(root.resolve("backup"), database);
+
+            Database connected = Database.connect(root.toString(), "db");
+            assertArrayEquals(new String[]{"x2", "x3", "x4", "x5", "x6"}, connected.get("a").getData(), type.name());
+            assertArrayEquals(new String[]{"z1", "z2"}, connected.get("d").getData(), type.name());
+            assertArrayEquals(new String[]{"w1", "w2"}, connected.get("g").getData(), type.name());
+            assertArrayEquals(new String[]{"v1", "v2"}, connected.get("f").getData(), type.name());
+            assertFalse(connected.contains("b") || connected.contains("c") || connected.contains("e"), type.name());
+            assertEquals(4, connected.size(), type.name());
+            connected.close();
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.list(path)) {
+                for (Path file : (Iterable<Path>) files::iterator)
+                    delete(file);
+            }
+        }
+        Files.delete(path);
+    }
+
+    // Copies the file, or the folder with everything in it
+    private static void copy(Path source, Path target) throws IOException {
+        try (Stream<Path> files = Files.walk(source)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Path copy = target.resolve(source.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(copy);
+                } else {
+                    Files.createDirectories(copy.getParent());
+                    Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates entries, keeps a copy of the storage, changes the entries and stops without closing the database.
+     */
+    static class CrashingWriter {
+        public static void main(String[] args) throws IOException {
+            Path root = Paths.get(args[0]);
+            StorageType type = StorageType.valueOf(args[1]);
+            Database database = Database.create("db", root.toString(), new DatabaseOptions().setStorageType(type));
+            database.add("a");
+            database.add("b");
+            database.add("c");
+            database.get("a").uploadData("x1", "x2", "x3");
+            database.get("b").uploadData("y1");
+            database.get("c").uploadData("z1");
+            database.close();
+
+            Path folder = root.resolve("db");
+            try (Stream<Path> files = Files.list(folder)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (!file.getFileName().toString().startsWith("."))
+                        copy(file, root.resolve("backup").resolve(file.getFileName().toString()));
+                }
+            }
+            if (type == StorageType.PAGED)
+                copy(folder.resolve(".sddata").resolve("entries.db"), root.resolve("backup").resolve(".sddata").resolve("entries.db"));
+
+            database = Database.connect(root.toString(), "db");
+            database.setDurability(Durability.BATCH);
+            Entry a = database.get("a");
+            a.uploadData("x4", "x5");
+            a.removeData(0);
+            database.rename("c", "d");
+            database.get("d").uploadData("z2");
+            database.delete("b");
+            Entry e = new Entry("e");
+            e.uploadData("w1");
+            database.add(e);
+            database.batch()
+                    .add("f")
+                    .uploadData("f", "v1", "v2")
+                    .uploadData("a", "x6")
+                    .rename("e", "g")
+                    .uploadData("g", "w2")
+                    .commit();
+            Runtime.getRuntime().halt(0);
+        }
+    }
+}
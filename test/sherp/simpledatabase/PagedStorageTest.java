@@ -0,0 +1,104 @@
+package sherp.simpledatabase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Single-file paged storage: reuse of released pages and rewrites interrupted by a crash.
+ */
+class PagedStorageTest {
+    @TempDir
+    Path folder;
+
+    private static PagedStorage open(FileChannel channel) throws IOException {
+        PagedStorage storage = new PagedStorage(channel);
+        storage.metrics = new Metrics(false, null);
+        storage.diagnostics = new Diagnostics(error -> {
+        }, 100);
+        return storage;
+    }
+
+    private PagedStorage open() throws IOException {
+        return open(FileChannel.open(folder.resolve("entries.db"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+
+    private static String[] lines(String prefix, int count) {
+        String[] lines = new String[count];
+        char[] filler = new char[400];
+        Arrays.fill(filler, prefix.charAt(0));
+        for (int i = 0; i < count; i++)
+            lines[i] = prefix + i + new String(filler);
+        return lines;
+    }
+
+    @Test
+    void releasedPagesAreReusedBeforeTheFileGrows() throws IOException {
+        PagedStorage storage = open();
+        storage.make("a");
+        storage.writeData("a", lines("a", 100));
+        // Rewriting moves the data to new pages and releases the old ones
+        storage.writeData("a", lines("b", 100));
+        long size = Files.size(folder.resolve("entries.db"));
+
+        storage.writeData("a", lines("c", 100));
+        storage.delete("a");
+        storage.make("d");
+        storage.writeData("d", lines("d", 100));
+        storage.appendData("d", Arrays.asList(lines("e", 10)));
+        storage.close();
+        assertEquals(size, Files.size(folder.resolve("entries.db")));
+
+        storage = open();
+        String[] expected = new String[110];
+        System.arraycopy(lines("d", 100), 0, expected, 0, 100);
+        System.arraycopy(lines("e", 10), 0, expected, 100, 10);
+        assertArrayEquals(expected, storage.readData("d"));
+        assertArrayEquals(new String[]{"d"}, storage.names());
+        storage.close();
+    }
+
+    @Test
+    void rewriteInterruptedByACrashIsReplayed() throws IOException {
+        String[] replaced = lines("r", 30);
+        for (int writes = 0; ; writes++) {
+            Files.deleteIfExists(folder.resolve("entries.db"));
+            PagedStorage storage = open();
+            storage.make("a");
+            storage.writeData("a", lines("a", 30));
+            storage.make("b");
+            storage.writeData("b", lines("b", 30));
+            storage.close();
+
+            // The process stops after the given amount of writes
+            storage = open(new StoppingChannel(FileChannel.open(folder.resolve("entries.db"),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE), writes));
+            boolean completed = storage.writeData("a", replaced);
+            storage.close();
+
+            // Replaying the logged change, then using the pages again must leave every entry intact
+            storage = open();
+            assertTrue(storage.writeData("a", replaced));
+            storage.make("c");
+            storage.writeData("c", lines("c", 60));
+            storage.appendData("b", Arrays.asList(lines("x", 20)));
+            assertArrayEquals(replaced, storage.readData("a"), "after " + writes + " writes");
+            assertArrayEquals(lines("c", 60), storage.readData("c"), "after " + writes + " writes");
+            assertEquals(50, storage.readData("b").length, "after " + writes + " writes");
+            storage.close();
+            if (completed)
+                break;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package sherp.simpledatabase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Renaming entries, alone and in batches, in both storage types.
+ */
+class RenameTest {
+    @TempDir
+    Path folder;
+
+    @Test
+    void blankNamesAreRejectedBeforeAnythingChanges() {
+        for (StorageType type : StorageType.values()) {
+            String name = "db" + type;
+            Database database = Database.create(name, folder.toString(), new DatabaseOptions().setStorageType(type));
+            database.add("a");
+            database.get("a").uploadData("x", "y");
+
+            assertThrows(IllegalArgumentException.class, () -> database.rename("a", " "));
+            assertThrows(IllegalArgumentException.class, () -> database.batch().rename("a", ""));
+            assertEquals("a", database.get("a").getName());
+            database.close();
+
+            Database connected = Database.connect(folder.toString(), name);
+            assertArrayEquals(new String[]{"a"}, connected.getEntryNames(), name);
+            assertArrayEquals(new String[]{"x", "y"}, connected.get("a").getData(), name);
+            connected.close();
+        }
+    }
+
+    @Test
+    void renamedEntriesKeepTheirData() {
+        for (StorageType type : StorageType.values()) {
+            String name = "db" + type;
+            Database database = Database.create(name, folder.toString(), new DatabaseOptions().setStorageType(type));
+            database.add("a");
+            database.add("b");
+            database.get("a").uploadData("x");
+            assertTrue(database.rename("a", " c "));
+            assertEquals(2, database.batch().rename("b", "d").rename("c", "a").commit());
+            database.close();
+
+            Database connected = Database.connect(folder.toString(), name);
+            assertTrue(connected.contains("a") && connected.contains("d"), name);
+            assertArrayEquals(new String[]{"x"}, connected.get("a").getData(), name);
+            connected.close();
+        }
+    }
+}
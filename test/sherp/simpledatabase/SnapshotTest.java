@@ -0,0 +1,60 @@
+package sherp.simpledatabase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Snapshots: entries and data as they were when the snapshot was taken, while the database keeps changing.
+ */
+class SnapshotTest {
+    @TempDir
+    Path folder;
+
+    @Test
+    void changesAfterTheSnapshotAreNotVisible() {
+        for (StorageType type : StorageType.values()) {
+            String name = "db" + type;
+            Database database = Database.create(name, folder.toString(), new DatabaseOptions().setStorageType(type));
+            database.add("a");
+            database.add("b");
+            database.get("a").uploadData("x1", "x2");
+            database.get("b").uploadData("y1");
+
+            Snapshot snapshot = database.snapshot();
+            Entry a = database.get("a");
+            a.uploadData("x3");
+            a.removeData(0);
+            database.get("b").clearData();
+            database.rename("b", "c");
+            database.add("d");
+            database.batch().uploadData("a", "x4").delete("d").add("e").commit();
+
+            assertArrayEquals(new String[]{"x1", "x2"}, snapshot.getData("a"), name);
+            assertArrayEquals(new String[]{"y1"}, snapshot.getData("b"), name);
+            assertArrayEquals(new String[]{"a", "b"}, snapshot.getEntryNames(), name);
+            assertFalse(snapshot.contains("c") || snapshot.contains("e"), name);
+            assertNull(snapshot.getData("c"), name);
+
+            Snapshot later = database.snapshot();
+            assertTrue(later.getVersion() > snapshot.getVersion(), name);
+            assertArrayEquals(new String[]{"x2", "x3", "x4"}, later.getData("a"), name);
+            assertArrayEquals(new String[]{}, later.getData("c"), name);
+            assertEquals(3, later.size(), name);
+
+            snapshot.close();
+            later.close();
+            assertThrows(IllegalStateException.class, () -> snapshot.getData("a"));
+            assertArrayEquals(new String[]{"x2", "x3", "x4"}, a.getData(), name);
+            database.close();
+        }
+    }
+}
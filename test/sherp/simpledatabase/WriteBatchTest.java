@@ -0,0 +1,91 @@
+package sherp.simpledatabase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Write batches: log records written together, and batches applied next to single changes.
+ */
+class WriteBatchTest {
+    @TempDir
+    Path folder;
+
+    private static long logWrites(Database database) {
+        return database.getMetrics().getOperation(OperationType.LOG).getCount();
+    }
+
+    @Test
+    void batchWaitsForTheLogOnce() {
+        for (StorageType type : StorageType.values()) {
+            String name = "db" + type;
+            Database database = Database.create(name, folder.toString(), new DatabaseOptions()
+                    .setStorageType(type).setMetrics(true).setErrorHandler(error -> {
+                    }));
+            database.setDurability(Durability.BATCH);
+            database.add("a");
+            database.add("b");
+            database.get("a").uploadData("x1");
+            Entry c = new Entry("c");
+            c.uploadData("z1");
+
+            long writes = logWrites(database);
+            int applied = database.batch()
+                    .add(c)
+                    .add("d")
+                    .uploadData("a", "x2")
+                    .uploadData("c", "z2", "z3")
+                    .rename("b", "e")
+                    .delete("d")
+                    .uploadData("e", "y1")
+                    .add("a")
+                    .uploadData("missing", "m")
+                    .commit();
+            assertEquals(7, applied, name);
+            assertEquals(writes + 1, logWrites(database), name);
+
+            writes = logWrites(database);
+            WriteBatch batch = database.batch();
+            for (int i = 0; i < 600; i++)
+                batch.add("n" + i);
+            assertEquals(600, batch.commit(), name);
+            assertEquals(writes + 3, logWrites(database), name);
+            database.close();
+
+            database = Database.connect(folder.toString(), name);
+            assertArrayEquals(new String[]{"x1", "x2"}, database.get("a").getData(), name);
+            assertArrayEquals(new String[]{"z1", "z2", "z3"}, database.get("c").getData(), name);
+            assertArrayEquals(new String[]{"y1"}, database.get("e").getData(), name);
+            assertFalse(database.contains("b") || database.contains("d"), name);
+            assertEquals(603, database.size(), name);
+            database.close();
+        }
+    }
+
+    @Test
+    void batchesKeepTheOrderOfConcurrentUploads() throws InterruptedException {
+        Database database = Database.create("db", folder.toString());
+        database.add("a");
+        Entry entry = database.get("a");
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 1000; i++)
+                entry.uploadData("t" + i);
+        });
+        writer.start();
+        for (int i = 0; i < 200; i++)
+            database.batch().uploadData("a", "b" + i).add("e" + i).commit();
+        writer.join();
+        String[] data = entry.getData();
+        assertEquals(1200, data.length);
+        database.close();
+
+        database = Database.connect(folder.toString(), "db");
+        assertArrayEquals(data, database.get("a").getData());
+        database.close();
+    }
+}